@@ -21,28 +21,38 @@ class Program {
         System.out.println("");
     }
 
-    public void V(TypeMap gm) {
+    // Type checks and transforms : checks every function in one walk,
+    // printing each type map as it goes, and returns the program with
+    // typed operators and widenings. done : bodies already checked and
+    // transformed, by function, kept up to date; or null
+    public Program VT(TypeMap gm, Map<Function, Block> done) {
         globals.V();
         System.out.println("[ Globals Type Map ]");
         globals.display(1);
         System.out.println("");
-        functions.V(gm);
+        return new Program(globals, functions.VT(gm, done));
     }
 
-    public Program T(TypeMap gm) {
-        functions = functions.T(gm);
-        return new Program(globals, functions);
+    public void resolve() {
+        functions.resolve(Semantics.slots(globals));
     }
 
     public State M() {
-        Variable main = new Variable("main");
-        ArrayList<Value> params = new ArrayList<>();
+        Function main = functions.find(new Variable("main"));
+        Value[] frame = Semantics.initialFrame(globals);
 
-        return functions.M_S(main, Semantics.initialState(globals), params);
+        main.M(functions, frame, main.frame());
+
+        return Semantics.finalState(globals, frame);
     }
 }
 
 class Functions extends ArrayList<Function> {
+    // the first function of each name, for find; functions are only ever
+    // added at the end, and those past indexed are indexed on the next find
+    private final HashMap<Variable, Function> index = new HashMap<>();
+    private int indexed = 0;
+
     public void display(int i) {
         for (int j = 0; j < i; j++) {
             System.out.print("\t");
@@ -53,16 +63,37 @@ class Functions extends ArrayList<Function> {
         }
     }
 
-    public void V(TypeMap gm) {
-        for (int i = 0; i < this.size() - 1; i++) {
-            Function fi = this.get(i);
+    public Functions VT(TypeMap gm, Map<Function, Block> done) {
+        names();
+
+        Functions fs = new Functions();
 
-            for (int j = i + 1; j < this.size(); j++) {
-                Function fj = this.get(j);
+        for (Function f : this) {
+            TypeMap tm = typeMap(f, gm);
+            Block body = done == null ? null : done.get(f);
 
-                if (fi.name.equals(fj.name)) {
-                    throw new IllegalArgumentException("duplicate function name : " + fj.name);
-                }
+            if (body == null) {
+                body = f.body.VT(this, tm);
+                if (done != null) done.put(f, body);
+            }
+
+            fs.add(new Function(f.name, f.type, f.params, f.locals, body));
+        }
+
+        return fs;
+    }
+
+    // no two functions of one name, and an int main
+    private void names() {
+        // the first name that is declared again, as comparing every
+        // pair in order would find it
+        HashSet<Variable> seen = new HashSet<>(), again = new HashSet<>();
+        for (Function f : this) {
+            if (!seen.add(f.name)) again.add(f.name);
+        }
+        for (Function f : this) {
+            if (again.contains(f.name)) {
+                throw new IllegalArgumentException("duplicate function name : " + f.name);
             }
         }
 
@@ -77,147 +108,100 @@ class Functions extends ArrayList<Function> {
         if (!m) {
             throw new IllegalArgumentException("int main function not found : ");
         }
+    }
 
-        for (Function f : this) {
-            TypeMap tm = new TypeMap();
-            tm.putAll(gm);
+    // f's type map, once its params, locals and returns are checked;
+    // printed
+    private TypeMap typeMap(Function f, TypeMap gm) {
+        TypeMap tm = new TypeMap();
+        tm.putAll(gm);
 
-            for (int i = 0; i < f.params.size() - 1; i++) {
-                Declaration di = f.params.get(i);
+        Variable v = f.params.duplicate();
+        if (v != null) {
+            throw new IllegalArgumentException("params duplicate declaration : " + v);
+        }
 
-                for (int j = i + 1; j < f.params.size(); j++) {
-                    Declaration dj = f.params.get(j);
+        v = f.locals.duplicate();
+        if (v != null) {
+            throw new IllegalArgumentException("locals duplicate declaration : " + v);
+        }
 
-                    if (di.v.equals(dj.v)) {
-                        throw new IllegalArgumentException("params duplicate declaration : " + dj.v);
-                    }
-                }
+        HashSet<Variable> locals = new HashSet<>();
+        for (Declaration d : f.locals) {
+            locals.add(d.v);
+        }
+        for (Declaration d : f.params) {
+            if (locals.contains(d.v)) {
+                throw new IllegalArgumentException("function duplicate declaration : " + d.v);
             }
+        }
 
-            for (int i = 0; i < f.locals.size() - 1; i++) {
-                Declaration di = f.locals.get(i);
-
-                for (int j = i + 1; j < f.locals.size(); j++) {
-                    Declaration dj = f.locals.get(j);
+        f.params.V();
+        f.locals.V();
 
-                    if (di.v.equals(dj.v)) {
-                        throw new IllegalArgumentException("locals duplicate declaration : " + dj.v);
-                    }
-                }
-            }
+        tm.putAll(TypeChecker.typing(f.params));
+        tm.putAll(TypeChecker.typing(f.locals));
 
-            for (Declaration di : f.params) {
-                for (Declaration dj : f.locals) {
-                    if (di.v.equals(dj.v)) {
-                        throw new IllegalArgumentException("function duplicate declaration : " + dj.v);
-                    }
-                }
+        if (f.type.equals(Type.VOID)) {
+            for (Statement s : f.body.members) {
+                if (s instanceof Return) throw new IllegalArgumentException("void function cannot have a return value : " + f.name);
             }
+        }
+        else {
+            boolean b = false;
 
-            f.params.V();
-            f.locals.V();
-
-            tm.putAll(TypeChecker.typing(f.params));
-            tm.putAll(TypeChecker.typing(f.locals));
-
-            if (f.type.equals(Type.VOID)) {
-                for (Statement s : f.body.members) {
-                    if (s instanceof Return) throw new IllegalArgumentException("void function cannot have a return value : " + f.name);
-                }
+            for (Statement s : f.body.members) {
+                if (s instanceof Return) b = true;
             }
-            else {
-                boolean b = false;
-
-                for (Statement s : f.body.members) {
-                    if (s instanceof Return) b = true;
-                }
 
-                if (!b) throw new IllegalArgumentException("no return value : " + f.name);
-            }
+            if (!b) throw new IllegalArgumentException("no return value : " + f.name);
+        }
 
-            System.out.println("[ Function Type Map -> " + f.name +  " ]");
-            tm.display();
+        System.out.println("[ Function Type Map -> " + f.name +  " ]");
+        tm.display();
 
-            f.body.V(this, tm);
-        }
+        return tm;
     }
 
-    public Functions T(TypeMap gm) {
-        Functions fs = new Functions();
-
+    public void resolve(HashMap<Variable, Integer> gm) {
         for (Function f : this) {
-            TypeMap tm = new TypeMap();
-            tm.putAll(gm);
-            tm.putAll(TypeChecker.typing(f.params));
-            tm.putAll(TypeChecker.typing(f.locals));
+            HashMap<Variable, Integer> lm = new HashMap<>();
+            int slot = 0;
 
-            Function nf = new Function(f.name, f.type, f.params, f.locals, f.body.T(this, tm));
+            for (Declaration d : f.params) {
+                lm.put(d.v, slot++);
+            }
+            for (Declaration d : f.locals) {
+                lm.put(d.v, slot++);
+            }
 
-            fs.add(nf);
+            f.body.resolve(this, gm, lm);
         }
-
-        return fs;
     }
 
-    public State M_S(Variable fun, State globals, ArrayList<Value> params) {
-        for (int i = 0; i < this.size(); i++) {
-            if (this.get(i).name.equals(fun)) { // find function
-                State locals = new State();
-                Function f = new Function(
-                        this.get(i).name, this.get(i).type, this.get(i).params, this.get(i).locals, this.get(i).body
-                );
-                Semantics.callStack.push(f);
-
-                for (int j = 0; j < f.params.size(); j++) {
-                    locals.put(f.params.get(j).v, params.get(j));
-                }
-                locals.putAll(Semantics.initialState(f.locals));
-
-                f.body.M(this, globals, locals);
-
-                Semantics.callStack.pop();
-                break;
-            }
+    public Function find(Variable name) {
+        if (indexed > size()) {
+            index.clear();
+            indexed = 0;
         }
-
-        return globals;
-    }
-
-    public Value M_V(Variable fun, State globals, ArrayList<Value> params) {
-        Value result = null;
-
-        for (int i = 0; i < this.size(); i++) {
-            if (this.get(i).name.equals(fun)) { // find function
-                State locals = new State();
-                Function f = new Function(
-                        this.get(i).name, this.get(i).type, this.get(i).params, this.get(i).locals, this.get(i).body
-                );
-                Semantics.callStack.push(f);
-
-                for (int j = 0; j < f.params.size(); j++) {
-                    locals.put(f.params.get(j).v, params.get(j));
-                }
-                locals.putAll(Semantics.initialState(f.locals));
-
-                f.body.M(this, globals, locals);
-
-                result = f.value;
-
-                Semantics.callStack.pop();
-                break;
-            }
+        for (; indexed < size(); indexed++) {
+            index.putIfAbsent(get(indexed).name, get(indexed));
         }
 
-        return result;
+        return index.get(name);
     }
 }
 
 class Function {
     Variable name;
     Type type;
-    Value value;
+    Value value; // result of a call that ends without a return
     Declarations params, locals;
     Block body;
+    private Value[] prototype; // initial frame, copied by each call
+
+    int calls;                 // counted for Tier while not compiled
+    Tier.Entry compiled;
 
     Function(Variable n, Type t, Declarations p, Declarations l, Block b) {
         name = n;
@@ -238,6 +222,35 @@ class Function {
             value = new VoidValue();
     }
 
+    // Activation record of one call : params occupy slots 0 .. p-1 and
+    // are filled in by the caller, locals follow them, initially undef.
+    public Value[] frame() {
+        if (prototype == null) {
+            prototype = new Value[params.size() + locals.size()];
+
+            for (int i = 0; i < locals.size(); i++) {
+                prototype[params.size() + i] = Value.mkValue(locals.get(i).t);
+            }
+        }
+
+        return prototype.clone();
+    }
+
+    public Value M(Functions fs, Value[] globals, Value[] frame) {
+        if (Tier.enabled && Tier.hot(this, globals, frame)) {
+            Value result = Tier.call(compiled, frame);
+            return result == null ? value : result;
+        }
+
+        Value result = body.M(fs, globals, frame);
+
+        if (result == null) { // fell off the end without a return
+            result = value;
+        }
+
+        return result;
+    }
+
     public void display(int i) {
         for (int j = 0; j < i; j++) {
             System.out.print("\t");
@@ -283,22 +296,27 @@ class Declarations extends ArrayList<Declaration> {
     // (a list of declarations d1, d2, ..., dn)
 
     public void V() {
-        for (int i = 0; i < this.size() - 1; i++) {
-            Declaration di = this.get(i);
-
-            for (int j = i + 1; j < this.size(); j++) {
-                Declaration dj = this.get(j);
-
-                if (di.v.equals(dj.v)) {
-                    throw new IllegalArgumentException("duplicate declaration : " + dj.v);
-                }
-            }
+        Variable v = duplicate();
+        if (v != null) {
+            throw new IllegalArgumentException("duplicate declaration : " + v);
         }
 
         for (Declaration d : this) {
             if (d.t.equals(Type.VOID)) throw new IllegalArgumentException("Cannot declare void variable : " + d.v);
         }
     }
+
+    // the first variable declared again later, or null
+    Variable duplicate() {
+        HashSet<Variable> seen = new HashSet<>(), again = new HashSet<>();
+        for (Declaration d : this) {
+            if (!seen.add(d.v)) again.add(d.v);
+        }
+        for (Declaration d : this) {
+            if (again.contains(d.v)) return d.v;
+        }
+        return null;
+    }
 }
 
 class Declaration {
@@ -348,11 +366,24 @@ abstract class Statement {
         }
     }
 
-    abstract public void V(Functions fs, TypeMap tm);
+    // this checked against tm, throwing on the first error, and
+    // transformed : operators typed and widenings made explicit
+    abstract public Statement VT(Functions fs, TypeMap tm);
 
-    abstract public Statement T(Functions fs, TypeMap tm);
+    abstract public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm);
 
-    abstract public State M(Functions fs, State globals, State locals);
+    // Returns null when the statement completes normally, or the value of
+    // the return statement that ended it; callers stop at the first non-null.
+    abstract public Value M(Functions fs, Value[] globals, Value[] locals);
+
+    // condition of an if / while, evaluated without boxing
+    protected boolean test(Expression e, Functions fs, Value[] globals, Value[] locals) {
+        try {
+            return e.evalBool(fs, globals, locals);
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + e);
+        }
+    }
 }
 
 class Skip extends Statement {
@@ -360,18 +391,18 @@ class Skip extends Statement {
     public void display(int i) { return; }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        return;
+    public Skip VT(Functions fs, TypeMap tm) {
+        return new Skip();
     }
 
     @Override
-    public Skip T(Functions fs, TypeMap tm) {
-        return new Skip();
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        return;
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        return locals;
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        return null;
     }
 }
 
@@ -392,36 +423,34 @@ class Block extends Statement {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        for (Statement s : members) {
-            s.V(fs, tm);
-        }
-    }
-
-    @Override
-    public Block T(Functions fs, TypeMap tm) {
+    public Block VT(Functions fs, TypeMap tm) {
         Block b = new Block();
 
         for (Statement s : members) {
-            b.members.add(s.T(fs, tm));
+            b.members.add(s.VT(fs, tm));
         }
 
         return b;
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        State state = new State();
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        for (Statement s : members) {
+            s.resolve(fs, gm, lm);
+        }
+    }
 
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
         for (Statement s : members) {
-            if (!(Semantics.callStack.get(Semantics.callStack.size() - 1).value.isUndef())) {
-                return state;
-            }
+            Value result = s.M(fs, globals, locals);
 
-            state = s.M(fs, globals, locals);
+            if (result != null) {
+                return result;
+            }
         }
 
-        return state;
+        return null;
     }
 }
 
@@ -445,13 +474,7 @@ class Assignment extends Statement {
         source.display(i + 1);
     }
 
-    @Override
-    public void V(Functions fs, TypeMap tm) {
-        check(tm.containsKey(target), "assignment target error (undeclared variable) : " + target);
-        source.V(fs, tm);
-
-        Type ttype = tm.get(target);
-        Type stype = source.typeOf(fs, tm);
+    private void check(Type ttype, Type stype) {
         if (ttype != stype) {
             if (ttype == Type.FLOAT) check(stype == Type.INT, "assignment type error : " + target);
             else if (ttype == Type.INT) check(stype == Type.CHAR, "assignment type error : " + target);
@@ -460,21 +483,28 @@ class Assignment extends Statement {
     }
 
     @Override
-    public Assignment T(Functions fs, TypeMap tm) {
-        Expression e = source.T(fs, tm);
+    public Assignment VT(Functions fs, TypeMap tm) {
+        check(tm.containsKey(target), "assignment target error (undeclared variable) : " + target);
+        Expression e = source.VT(fs, tm);
 
         Type ttype = tm.get(target);
         Type stype = source.typeOf(fs, tm);
+        check(ttype, stype);
+
+        return widen(e, ttype, stype);
+    }
 
+    // e, the transformed source, widened to the target's type
+    private Assignment widen(Expression e, Type ttype, Type stype) {
         if (ttype == Type.FLOAT) {
             if (stype == Type.INT) {
-                e = new Unary(new Operator(Operator.I2F), e);
+                e = new Unary(new Operator(Opcode.I2F), e);
                 stype = Type.FLOAT;
             }
         }
         else if (ttype == Type.INT) {
             if (stype == Type.CHAR) {
-                e = new Unary(new Operator(Operator.C2I), e);
+                e = new Unary(new Operator(Opcode.C2I), e);
                 stype = Type.INT;
             }
         }
@@ -484,15 +514,55 @@ class Assignment extends Statement {
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        if (!(Semantics.callStack.get(Semantics.callStack.size() - 1).value.isUndef())) {
-            return locals;
-        }
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        target.resolve(fs, gm, lm);
+        source.resolve(fs, gm, lm);
+    }
 
-        if (locals.containsKey(target))
-            return locals.onion(target, source.M(fs, globals, locals));
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        if (source instanceof Binary)
+            store(((Binary) source).op.code.type, fs, globals, locals);
+        else if (source instanceof Unary)
+            store(((Unary) source).op.code.type, fs, globals, locals);
         else
-            return globals.onion(target, source.M(fs, globals, locals));
+            target.set(globals, locals, source.M(fs, globals, locals));
+
+        return null;
+    }
+
+    // The source evaluated unboxed, then written into the value the target
+    // holds if an assignment stored it and it is still held there only;
+    // else boxed into a new value the target owns. Ownership is checked
+    // after the source runs, since a call in it may read the target out.
+    private void store(Type type, Functions fs, Value[] globals, Value[] locals) {
+        Value v;
+        if (type == Type.INT) {
+            int r = source.evalInt(fs, globals, locals);
+            v = target.owned(globals, locals);
+            if (v != null) ((IntValue) v).set(r);
+            else v = new IntValue(r);
+        }
+        else if (type == Type.FLOAT) {
+            float r = source.evalFloat(fs, globals, locals);
+            v = target.owned(globals, locals);
+            if (v != null) ((FloatValue) v).set(r);
+            else v = new FloatValue(r);
+        }
+        else if (type == Type.CHAR) {
+            char r = source.evalChar(fs, globals, locals);
+            v = target.owned(globals, locals);
+            if (v != null) ((CharValue) v).set(r);
+            else v = new CharValue(r);
+        }
+        else {
+            boolean r = source.evalBool(fs, globals, locals);
+            v = target.owned(globals, locals);
+            if (v != null) ((BoolValue) v).set(r);
+            else v = new BoolValue(r);
+        }
+        v.owned = true;
+        target.set(globals, locals, v);
     }
 }
 
@@ -536,45 +606,40 @@ class Conditional extends Statement {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        test.V(fs, tm);
+    public Conditional VT(Functions fs, TypeMap tm) {
+        Expression e = test.VT(fs, tm);
 
-        if (test.typeOf(fs, tm) == Type.BOOL) {
-            thenbranch.V(fs, tm);
-            if (elsebranch != null) elsebranch.V(fs, tm);
-        }
-        else {
+        if (test.typeOf(fs, tm) != Type.BOOL) {
             check(false, "conditional type error : " + test);
         }
-    }
 
-    @Override
-    public Conditional T(Functions fs, TypeMap tm) {
-        Expression e = test.T(fs, tm);
-        Statement st = thenbranch.T(fs, tm);
+        Statement st = thenbranch.VT(fs, tm);
         Statement se = null;
 
         if (elsebranch != null) {
-            se = elsebranch.T(fs, tm);
+            se = elsebranch.VT(fs, tm);
         }
 
         return new Conditional(e, st, se);
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        if (!(Semantics.callStack.get(Semantics.callStack.size() - 1).value.isUndef())) {
-            return locals;
-        }
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        test.resolve(fs, gm, lm);
+        thenbranch.resolve(fs, gm, lm);
+        if (elsebranch != null) elsebranch.resolve(fs, gm, lm);
+    }
 
-        if(test.M(fs, globals, locals).boolValue())
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        if(test(test, fs, globals, locals))
             return thenbranch.M(fs, globals, locals);
         else
             if (elsebranch != null) {
                 return elsebranch.M(fs, globals, locals);
             }
             else {
-                return locals;
+                return null;
             }
     }
 }
@@ -584,6 +649,9 @@ class Loop extends Statement {
     Expression test;
     Statement body;
 
+    int trips;                 // counted for Tier while not compiled
+    Tier.Entry compiled;
+
     Loop (Expression t, Statement b) {
         test = t; body = b;
     }
@@ -599,31 +667,43 @@ class Loop extends Statement {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        test.V(fs, tm);
+    public Loop VT(Functions fs, TypeMap tm) {
+        Expression e = test.VT(fs, tm);
+
+        if (test.typeOf(fs, tm) != Type.BOOL) check(false, "loop type error : " + test);
+        Statement s = body.VT(fs, tm);
 
-        if (test.typeOf(fs, tm) == Type.BOOL) body.V(fs, tm);
-        else check(false, "loop type error : " + test);
+        return new Loop(e, s);
     }
 
     @Override
-    public Loop T(Functions fs, TypeMap tm) {
-        Expression e = test.T(fs, tm);
-        Statement s = body.T(fs, tm);
-
-        return new Loop(e, s);
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        // code compiled for an earlier binding is not for this one
+        trips = 0;
+        compiled = null;
+        test.resolve(fs, gm, lm);
+        body.resolve(fs, gm, lm);
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        if (!(Semantics.callStack.get(Semantics.callStack.size() - 1).value.isUndef())) {
-            return locals;
-        }
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        // iterate in place instead of recursing once per trip,
+        // so the Java stack stays flat however long the loop runs
+        while (true) {
+            if (Tier.enabled && Tier.hot(this, globals, locals)) {
+                return Tier.call(compiled, locals); // the rest of the loop
+            }
 
-        if (test.M(fs, globals, locals).boolValue())
-            return this.M(fs, body.M(fs, globals, locals), locals);
-        else
-            return locals;
+            if (!test(test, fs, globals, locals)) {
+                return null;
+            }
+
+            Value result = body.M(fs, globals, locals);
+
+            if (result != null) {
+                return result;
+            }
+        }
     }
 }
 
@@ -645,34 +725,31 @@ class Print extends Statement {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        expression.V(fs, tm);
-    }
-
-    @Override
-    public Print T(Functions fs, TypeMap tm) {
-        Expression e = expression.T(fs, tm);
+    public Print VT(Functions fs, TypeMap tm) {
+        Expression e = expression.VT(fs, tm);
 
         return new Print(e);
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        if (!(Semantics.callStack.get(Semantics.callStack.size() - 1).value.isUndef())) {
-            return locals;
-        }
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        expression.resolve(fs, gm, lm);
+    }
 
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
         Value v = expression.M(fs, globals, locals);
 
         System.out.print(v);
 
-        return locals;
+        return null;
     }
 }
 
 class StatementCall extends Statement {
     Variable name;
     ArrayList<Expression> params;
+    Function function; // call target, bound by resolve
 
     StatementCall(Variable n, ArrayList<Expression> p) {
         name = n;
@@ -695,23 +772,17 @@ class StatementCall extends Statement {
         }
     }
 
-    @Override
-    public void V(Functions fs, TypeMap tm) {
-        boolean c = false;
-        Function function = null;
+    // the function called, the one of its name, Functions.VT having
+    // rejected any name declared twice
+    private Function callee(Functions fs) {
+        Function function = fs.find(name);
+        check(function != null, "undefined function StatementCall : " + name);
 
-        for (Function f : fs) {
-            if (f.name.equals(this.name)) {
-                c = true;
-                function = f;
-            }
-        }
-        check(c, "undefined function StatementCall : " + name);
-
-        for (Expression e : params) {
-            e.V(fs, tm);
-        }
+        return function;
+    }
 
+    // params, checked by VT, agree with function's in number and type
+    private void arguments(Function function, Functions fs, TypeMap tm) {
         check(function.params.size() == params.size(), "different number of parameters : " + name);
 
         for (int i = 0; i < params.size(); i++) {
@@ -720,35 +791,48 @@ class StatementCall extends Statement {
     }
 
     @Override
-    public StatementCall T(Functions fs, TypeMap tm) {
+    public StatementCall VT(Functions fs, TypeMap tm) {
+        Function function = callee(fs);
         ArrayList<Expression> es = new ArrayList<>();
 
         for (Expression e : params) {
-            es.add(e.T(fs, tm));
+            es.add(e.VT(fs, tm));
         }
 
+        arguments(function, fs, tm);
+
         return new StatementCall(name, es);
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        if (!(Semantics.callStack.get(Semantics.callStack.size() - 1).value.isUndef())) {
-            return locals;
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        function = fs.find(name);
+        check(function != null, "undefined function StatementCall : " + name);
+
+        for (Expression e : params) {
+            e.resolve(fs, gm, lm);
         }
+    }
 
-        ArrayList<Value> p = new ArrayList<>();
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        Value[] frame = function.frame();
 
-        for (Expression e : params) {
-            p.add(e.M(fs, globals, locals));
+        for (int i = 0; i < params.size(); i++) {
+            frame[i] = params.get(i).M(fs, globals, locals);
         }
 
-        return fs.M_S(name, globals, p);
+        function.M(fs, globals, frame);
+
+        return null;
     }
 }
 
 class ExpressionCall extends Expression {
     Variable name;
     ArrayList<Expression> params;
+    Function function; // call target, bound by resolve
+    private Type type; // set by VT, read by typeOf
 
     ExpressionCall(Variable n, ArrayList<Expression> p) {
         name = n;
@@ -773,36 +857,25 @@ class ExpressionCall extends Expression {
 
     @Override
     protected Type typeOf(Functions fs, TypeMap tm) {
-        Type t = null;
-
-        for (Function f : fs) {
-            if (f.name.equals(this.name)) {
-                t = f.type;
-            }
-        }
+        if (type != null) return type;
 
-        if (t == null) check(false, "undefined function StatementCall typeOf : " + name);
+        Function f = fs.find(name);
+        if (f == null) check(false, "undefined function StatementCall typeOf : " + name);
 
-        return t;
+        return f.type;
     }
 
-    @Override
-    public void V(Functions fs, TypeMap tm) {
-        boolean c = false;
-        Function function = null;
-
-        for (Function f : fs) {
-            if (f.name.equals(this.name)) {
-                c = true;
-                function = f;
-            }
-        }
-        check(c, "undefined function ExpressionCall : " + name);
+    // the function called, the one of its name, Functions.VT having
+    // rejected any name declared twice
+    private Function callee(Functions fs) {
+        Function function = fs.find(name);
+        check(function != null, "undefined function ExpressionCall : " + name);
 
-        for (Expression e : params) {
-            e.V(fs, tm);
-        }
+        return function;
+    }
 
+    // params, checked by VT, agree with function's in number and type
+    private void arguments(Function function, Functions fs, TypeMap tm) {
         check(function.params.size() == params.size(), "different number of parameters : " + name);
 
         for (int i = 0; i < params.size(); i++) {
@@ -811,31 +884,40 @@ class ExpressionCall extends Expression {
     }
 
     @Override
-    public ExpressionCall T(Functions fs, TypeMap tm) {
+    public ExpressionCall VT(Functions fs, TypeMap tm) {
+        Function function = callee(fs);
         ArrayList<Expression> es = new ArrayList<>();
 
         for (Expression e : params) {
-            es.add(e.T(fs, tm));
+            es.add(e.VT(fs, tm));
         }
 
+        arguments(function, fs, tm);
+
+        type = function.type;
+
         return new ExpressionCall(name, es);
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        for (int i = 0; i < fs.size(); i++) {
-            if (fs.get(i).name.equals(name)) {
-                ArrayList<Value> p = new ArrayList<>();
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        function = fs.find(name);
+        check(function != null, "undefined function ExpressionCall : " + name);
 
-                for (Expression e : params) {
-                    p.add(e.M(fs, globals, locals));
-                }
+        for (Expression e : params) {
+            e.resolve(fs, gm, lm);
+        }
+    }
 
-                return fs.M_V(name, globals, p);
-            }
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        Value[] frame = function.frame();
+
+        for (int i = 0; i < params.size(); i++) {
+            frame[i] = params.get(i).M(fs, globals, locals);
         }
 
-        throw new IllegalArgumentException("ExpressionCall M error");
+        return function.M(fs, globals, frame);
     }
 }
 
@@ -858,36 +940,31 @@ class Return extends Statement {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        boolean c = false;
-        Type t = null;
-        for (Function f : fs) {
-            if (f.name.equals(this.name)) {
-                c = true;
-                t = f.type;
-            }
-        }
-        check(c, "undefined function Return : " + name);
-
-        result.V(fs, tm);
+    public Return VT(Functions fs, TypeMap tm) {
+        Type t = type(fs);
+        Expression e = result.VT(fs, tm);
 
         check(result.typeOf(fs, tm).equals(t), "function return type error : " + name);
+
+        return new Return(name, e);
     }
 
-    @Override
-    public Return T(Functions fs, TypeMap tm) {
-        return new Return(name, result.T(fs, tm));
+    // the type of the function returned from
+    private Type type(Functions fs) {
+        Function f = fs.find(name);
+        check(f != null, "undefined function Return : " + name);
+
+        return f.type;
     }
 
     @Override
-    public State M(Functions fs, State globals, State locals) {
-        if (!(Semantics.callStack.get(Semantics.callStack.size() - 1).value.isUndef())) {
-            return locals;
-        }
-
-        Semantics.callStack.get(Semantics.callStack.size() - 1).value = result.M(fs, globals, locals);
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        result.resolve(fs, gm, lm);
+    }
 
-        return locals;
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        return result.M(fs, globals, locals);
     }
 }
 
@@ -907,26 +984,76 @@ abstract class Expression {
 
     abstract protected Type typeOf(Functions fs, TypeMap tm);
 
-    abstract public void V(Functions fs, TypeMap tm);
+    // as for Statement
+    abstract public Expression VT(Functions fs, TypeMap tm);
+
+    abstract public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm);
+
+    abstract public Value M(Functions fs, Value[] globals, Value[] locals);
 
-    abstract public Expression T(Functions fs, TypeMap tm);
+    // Unboxed evaluation of typed expressions : values are boxed only when
+    // stored into a frame or printed. Reading an undefined value raises
+    // Undef, which the enclosing operator reports as an undef value error.
+    int evalInt(Functions fs, Value[] globals, Value[] locals) {
+        return defined(M(fs, globals, locals)).intValue();
+    }
+
+    float evalFloat(Functions fs, Value[] globals, Value[] locals) {
+        return defined(M(fs, globals, locals)).floatValue();
+    }
+
+    char evalChar(Functions fs, Value[] globals, Value[] locals) {
+        return defined(M(fs, globals, locals)).charValue();
+    }
 
-    abstract public Value M(Functions fs, State globals, State locals);
+    boolean evalBool(Functions fs, Value[] globals, Value[] locals) {
+        return defined(M(fs, globals, locals)).boolValue();
+    }
+
+    protected static Value defined(Value v) {
+        if (v.isUndef()) throw Undef.UNDEF;
+        return v;
+    }
+}
+
+class Undef extends RuntimeException {
+    // thrown on every undefined read, so it is shared and carries no stack trace
+    static final Undef UNDEF = new Undef();
+    private static final long serialVersionUID = 1L;
+
+    private Undef() { super(null, null, false, false); }
 }
 
 class Variable extends Expression {
     // Variable = String id
     private String id;
+    // the number id has in table; Variables numbered in the same table
+    // compare by it, others by id
+    private final Symbols table;
+    private final int symbol;
+    // frame slot bound by resolve(); global selects the globals frame
+    private int slot = -1;
+    private boolean global;
 
-    Variable (String s) { id = s; }
+    Variable (String s) { id = s; table = Symbols.current(); symbol = table.intern(s); }
+
+    Variable (Symbols t, int s) { id = t.name(s); table = t; symbol = s; }
 
     public String toString( ) { return id; }
+
+    int slot( ) { return slot; }
+
+    boolean isGlobal( ) { return global; }
     
     public boolean equals (Object obj) {
-        String s = ((Variable) obj).id;
-        return id.equals(s); // case-sensitive identifiers
+        Variable v = (Variable) obj;
+        if (table == v.table)
+            return symbol == v.symbol; // case-sensitive identifiers
+        return id.equals(v.id);
     }
     
+    // the String's cached hash, which keeps State and TypeMap in the
+    // order they display in
     public int hashCode ( ) { return id.hashCode( ); }
 
     @Override
@@ -944,22 +1071,63 @@ class Variable extends Expression {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
+    public Variable VT(Functions fs, TypeMap tm) {
         check(tm.containsKey(this), "undeclared variable : " + id);
-        return;
+        return this;
     }
 
     @Override
-    public Variable T(Functions fs, TypeMap tm) {
-        return this;
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        if (lm.containsKey(this)) {
+            slot = lm.get(this);
+            global = false;
+        }
+        else {
+            check(gm.containsKey(this), "unresolved variable : " + id);
+            slot = gm.get(this);
+            global = true;
+        }
+    }
+
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        // read out, the value may be held elsewhere from now on
+        Value v = global ? globals[slot] : locals[slot];
+        v.owned = false;
+        return v;
+    }
+
+    // the value held, if an assignment may update it in place, else null
+    Value owned(Value[] globals, Value[] locals) {
+        Value v = global ? globals[slot] : locals[slot];
+        return v.owned ? v : null;
+    }
+
+    @Override
+    int evalInt(Functions fs, Value[] globals, Value[] locals) {
+        return defined(global ? globals[slot] : locals[slot]).intValue();
+    }
+
+    @Override
+    float evalFloat(Functions fs, Value[] globals, Value[] locals) {
+        return defined(global ? globals[slot] : locals[slot]).floatValue();
+    }
+
+    @Override
+    char evalChar(Functions fs, Value[] globals, Value[] locals) {
+        return defined(global ? globals[slot] : locals[slot]).charValue();
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        if (locals.containsKey(this))
-            return locals.get(this);
+    boolean evalBool(Functions fs, Value[] globals, Value[] locals) {
+        return defined(global ? globals[slot] : locals[slot]).boolValue();
+    }
+
+    public void set(Value[] globals, Value[] locals, Value v) {
+        if (global)
+            globals[slot] = v;
         else
-            return globals.get(this);
+            locals[slot] = v;
     }
 }
 
@@ -968,6 +1136,11 @@ abstract class Value extends Expression {
     //         CharValue | FloatValue
     protected Type type;
     protected boolean undef = true;
+    // held by one variable only, as Assignment stored it, so that it may
+    // be updated in place by set; cleared once Variable.M reads it out.
+    // Only Assignment.store sets it, on a Value it made itself, so a
+    // literal, which the Parser shares, or an initial value never is
+    boolean owned;
 
     int intValue ( ) {
         assert false : "should never reach here";
@@ -991,6 +1164,16 @@ abstract class Value extends Expression {
 
     boolean isUndef( ) { return undef; }
 
+    @Override
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        return;
+    }
+
+    @Override
+    public Value VT(Functions fs, TypeMap tm) {
+        return this;
+    }
+
     Type type ( ) { return type; }
 
     static Value mkValue (Type type) {
@@ -1009,6 +1192,8 @@ class IntValue extends Value {
 
     IntValue (int v) { this( ); value = v; undef = false; }
 
+    void set (int v) { assert owned; value = v; }
+
     int intValue ( ) {
         assert !undef : "reference to undefined int value";
         return value;
@@ -1033,18 +1218,13 @@ class IntValue extends Value {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        return;
-    }
-
-    @Override
-    public IntValue T(Functions fs, TypeMap tm) {
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
         return this;
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        return this;
+    int evalInt(Functions fs, Value[] globals, Value[] locals) {
+        return value;
     }
 }
 
@@ -1055,6 +1235,8 @@ class BoolValue extends Value {
 
     BoolValue (boolean v) { this( ); value = v; undef = false; }
 
+    void set (boolean v) { assert owned; value = v; }
+
     boolean boolValue ( ) {
         assert !undef : "reference to undefined bool value";
         return value;
@@ -1084,18 +1266,13 @@ class BoolValue extends Value {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        return;
-    }
-
-    @Override
-    public BoolValue T(Functions fs, TypeMap tm) {
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
         return this;
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        return this;
+    boolean evalBool(Functions fs, Value[] globals, Value[] locals) {
+        return value;
     }
 }
 
@@ -1106,6 +1283,8 @@ class CharValue extends Value {
 
     CharValue (char v) { this( ); value = v; undef = false; }
 
+    void set (char v) { assert owned; value = v; }
+
     char charValue ( ) {
         assert !undef : "reference to undefined char value";
         return value;
@@ -1130,18 +1309,13 @@ class CharValue extends Value {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        return;
-    }
-
-    @Override
-    public CharValue T(Functions fs, TypeMap tm) {
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
         return this;
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        return this;
+    char evalChar(Functions fs, Value[] globals, Value[] locals) {
+        return value;
     }
 }
 
@@ -1152,6 +1326,8 @@ class FloatValue extends Value {
 
     FloatValue (float v) { this( ); value = v; undef = false; }
 
+    void set (float v) { assert owned; value = v; }
+
     float floatValue ( ) {
         assert !undef : "reference to undefined float value";
         return value;
@@ -1176,18 +1352,13 @@ class FloatValue extends Value {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        return;
-    }
-
-    @Override
-    public FloatValue T(Functions fs, TypeMap tm) {
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
         return this;
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        return this;
+    float evalFloat(Functions fs, Value[] globals, Value[] locals) {
+        return value;
     }
 }
 
@@ -1215,17 +1386,7 @@ class VoidValue extends Value {
     }
 
     @Override
-    public void V(Functions fs, TypeMap tm) {
-        return;
-    }
-
-    @Override
-    public Expression T(Functions fs, TypeMap tm) {
-        return this;
-    }
-
-    @Override
-    public Value M(Functions fs, State globals, State locals) {
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
         return this;
     }
 }
@@ -1234,6 +1395,9 @@ class Binary extends Expression {
 // Binary = Operator op; Expression term1, term2
     Operator op;
     Expression term1, term2;
+    // Set by VT, bottom up, so that typeOf, and so VT above, need not
+    // walk the terms again : a chain of n operands is typed in O(n).
+    private Type type;
 
     Binary (Operator o, Expression l, Expression r) {
         op = o; term1 = l; term2 = r;
@@ -1252,7 +1416,10 @@ class Binary extends Expression {
 
     @Override
     protected Type typeOf(Functions fs, TypeMap tm) {
-        if (op.ArithmeticOp()) {
+        if (type != null) {
+            return type;
+        }
+        else if (op.ArithmeticOp()) {
             return term1.typeOf(fs, tm);
         }
         else if (op.RelationalOp() || op.BooleanOp()) {
@@ -1263,13 +1430,8 @@ class Binary extends Expression {
         }
     }
 
-    @Override
-    public void V(Functions fs, TypeMap tm) {
-        term1.V(fs, tm);
-        term2.V(fs, tm);
-
-        Type tp1 = term1.typeOf(fs, tm);
-        Type tp2 = term2.typeOf(fs, tm);
+    // checks this over terms typed tp1 and tp2, and keeps its type
+    private void check(Type tp1, Type tp2) {
         if(op.ArithmeticOp()) {
             check((tp1 == tp2) && (tp1 == Type.INT || tp1 == Type.FLOAT), "binary type error : " + op);
         }
@@ -1282,16 +1444,23 @@ class Binary extends Expression {
         else {
             throw new IllegalArgumentException("binary type error : " + op);
         }
+
+        type = op.ArithmeticOp() ? tp1 : Type.BOOL;
     }
 
     @Override
-    public Binary T(Functions fs, TypeMap tm) {
+    public Binary VT(Functions fs, TypeMap tm) {
+        Expression t1 = term1.VT(fs, tm);
+        Expression t2 = term2.VT(fs, tm);
+
         Type tp1 = term1.typeOf(fs, tm);
-        Type tp2 = term2.typeOf(fs, tm);
+        check(tp1, term2.typeOf(fs, tm));
 
-        Expression t1 = term1.T(fs, tm);
-        Expression t2 = term2.T(fs, tm);
+        return typed(tp1, t1, t2);
+    }
 
+    // the typed Binary of t1 and t2, transformed terms, the first typed tp1
+    private Binary typed(Type tp1, Expression t1, Expression t2) {
         if(op.ArithmeticOp()) {
             if (tp1 == Type.INT) {
                 return new Binary(Operator.intMap(op.val), t1, t2);
@@ -1321,7 +1490,7 @@ class Binary extends Expression {
             }
         }
         else if (op.BooleanOp()) {
-            return new Binary(new Operator(op.val), t1, t2);
+            return new Binary(Operator.boolMap(op.val), t1, t2);
         }
         else {
             throw new IllegalArgumentException("type transform error : " + op);
@@ -1329,101 +1498,183 @@ class Binary extends Expression {
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        return applyBinary(term1.M(fs, globals, locals), term2.M(fs, globals, locals));
-    }
-
-    private Value applyBinary(Value v1, Value v2) {
-        check(!v1.isUndef() && !v2.isUndef(), "undef value error : " + op);
-
-        if (op.val.equals(Operator.INT_PLUS))
-            return new IntValue(v1.intValue( ) + v2.intValue( ));
-        if (op.val.equals(Operator.INT_MINUS))
-            return new IntValue(v1.intValue( ) - v2.intValue( ));
-        if (op.val.equals(Operator.INT_TIMES))
-            return new IntValue(v1.intValue( ) * v2.intValue( ));
-        if (op.val.equals(Operator.INT_DIV))
-            return new IntValue(v1.intValue( ) / v2.intValue( ));
-        if (op.val.equals(Operator.INT_REM))
-            return new IntValue(v1.intValue( ) % v2.intValue( ));
-
-        if (op.val.equals(Operator.FLOAT_PLUS))
-            return new FloatValue(v1.floatValue( ) + v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_MINUS))
-            return new FloatValue(v1.floatValue( ) - v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_TIMES))
-            return new FloatValue(v1.floatValue( ) * v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_DIV))
-            return new FloatValue(v1.floatValue( ) / v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_REM))
-            return new FloatValue(v1.floatValue( ) % v2.floatValue( ));
-
-        if (op.val.equals(Operator.INT_LT))
-            return new BoolValue(v1.intValue( ) < v2.intValue( ));
-        if (op.val.equals(Operator.INT_LE))
-            return new BoolValue(v1.intValue( ) <= v2.intValue( ));
-        if (op.val.equals(Operator.INT_EQ))
-            return new BoolValue(v1.intValue( ) == v2.intValue( ));
-        if (op.val.equals(Operator.INT_NE))
-            return new BoolValue(v1.intValue( ) != v2.intValue( ));
-        if (op.val.equals(Operator.INT_GT))
-            return new BoolValue(v1.intValue( ) > v2.intValue( ));
-        if (op.val.equals(Operator.INT_GE))
-            return new BoolValue(v1.intValue( ) >= v2.intValue( ));
-
-        if (op.val.equals(Operator.FLOAT_LT))
-            return new BoolValue(v1.floatValue( ) <  v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_LE))
-            return new BoolValue(v1.floatValue( ) <= v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_EQ))
-            return new BoolValue(v1.floatValue( ) == v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_NE))
-            return new BoolValue(v1.floatValue( ) != v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_GT))
-            return new BoolValue(v1.floatValue( ) >  v2.floatValue( ));
-        if (op.val.equals(Operator.FLOAT_GE))
-            return new BoolValue(v1.floatValue( ) >= v2.floatValue( ));
-
-        if (op.val.equals(Operator.CHAR_LT))
-            return new BoolValue(v1.charValue( ) <  v2.charValue( ));
-        if (op.val.equals(Operator.CHAR_LE))
-            return new BoolValue(v1.charValue( ) <= v2.charValue( ));
-        if (op.val.equals(Operator.CHAR_EQ))
-            return new BoolValue(v1.charValue( ) == v2.charValue( ));
-        if (op.val.equals(Operator.CHAR_NE))
-            return new BoolValue(v1.charValue( ) != v2.charValue( ));
-        if (op.val.equals(Operator.CHAR_GT))
-            return new BoolValue(v1.charValue( ) >  v2.charValue( ));
-        if (op.val.equals(Operator.CHAR_GE))
-            return new BoolValue(v1.charValue( ) >= v2.charValue( ));
-
-        if (op.val.equals(Operator.BOOL_EQ))
-            return new BoolValue(v1.boolValue( ) == v2.boolValue( ));
-        if (op.val.equals(Operator.BOOL_NE))
-            return new BoolValue(v1.boolValue( ) != v2.boolValue( ));
-//        // Unable to compare boolean in Java
-//        if (op.val.equals(Operator.BOOL_LT))
-//            return new BoolValue(v1.boolValue( ) < v2.boolValue( ));
-//        if (op.val.equals(Operator.BOOL_LE))
-//            return new BoolValue(v1.boolValue( ) <= v2.boolValue( ));
-//        if (op.val.equals(Operator.BOOL_GT))
-//            return new BoolValue(v1.boolValue( ) > v2.boolValue( ));
-//        if (op.val.equals(Operator.BOOL_GE))
-//            return new BoolValue(v1.boolValue( ) >= v2.boolValue( ));
-
-        if (op.val.equals(Operator.AND))
-            return new BoolValue(v1.boolValue( ) && v2.boolValue( ));
-        if (op.val.equals(Operator.OR))
-            return new BoolValue(v1.boolValue( ) || v2.boolValue( ));
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        term1.resolve(fs, gm, lm);
+        term2.resolve(fs, gm, lm);
+    }
+
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        // the result is boxed here only; operands are evaluated unboxed
+        if (op.code.type == Type.INT)
+            return new IntValue(evalInt(fs, globals, locals));
+        if (op.code.type == Type.FLOAT)
+            return new FloatValue(evalFloat(fs, globals, locals));
+        return new BoolValue(evalBool(fs, globals, locals));
+    }
+
+    @Override
+    int evalInt(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            switch (op.code) {
+                case INT_PLUS:
+                    return int1(fs, globals, locals) + term2.evalInt(fs, globals, locals);
+                case INT_MINUS:
+                    return int1(fs, globals, locals) - term2.evalInt(fs, globals, locals);
+                case INT_TIMES:
+                    return int1(fs, globals, locals) * term2.evalInt(fs, globals, locals);
+                case INT_DIV:
+                    return int1(fs, globals, locals) / term2.evalInt(fs, globals, locals);
+                case INT_REM:
+                    return int1(fs, globals, locals) % term2.evalInt(fs, globals, locals);
+                default:
+                    break;
+            }
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + op);
+        }
 
         throw new IllegalArgumentException("apply binary error : " + op);
     }
+
+    @Override
+    float evalFloat(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            switch (op.code) {
+                case FLOAT_PLUS:
+                    return float1(fs, globals, locals) + term2.evalFloat(fs, globals, locals);
+                case FLOAT_MINUS:
+                    return float1(fs, globals, locals) - term2.evalFloat(fs, globals, locals);
+                case FLOAT_TIMES:
+                    return float1(fs, globals, locals) * term2.evalFloat(fs, globals, locals);
+                case FLOAT_DIV:
+                    return float1(fs, globals, locals) / term2.evalFloat(fs, globals, locals);
+                case FLOAT_REM:
+                    return float1(fs, globals, locals) % term2.evalFloat(fs, globals, locals);
+                default:
+                    break;
+            }
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + op);
+        }
+
+        throw new IllegalArgumentException("apply binary error : " + op);
+    }
+
+    @Override
+    boolean evalBool(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            switch (op.code) {
+                case INT_LT:
+                    return int1(fs, globals, locals) < term2.evalInt(fs, globals, locals);
+                case INT_LE:
+                    return int1(fs, globals, locals) <= term2.evalInt(fs, globals, locals);
+                case INT_EQ:
+                    return int1(fs, globals, locals) == term2.evalInt(fs, globals, locals);
+                case INT_NE:
+                    return int1(fs, globals, locals) != term2.evalInt(fs, globals, locals);
+                case INT_GT:
+                    return int1(fs, globals, locals) > term2.evalInt(fs, globals, locals);
+                case INT_GE:
+                    return int1(fs, globals, locals) >= term2.evalInt(fs, globals, locals);
+
+                case FLOAT_LT:
+                    return float1(fs, globals, locals) <  term2.evalFloat(fs, globals, locals);
+                case FLOAT_LE:
+                    return float1(fs, globals, locals) <= term2.evalFloat(fs, globals, locals);
+                case FLOAT_EQ:
+                    return float1(fs, globals, locals) == term2.evalFloat(fs, globals, locals);
+                case FLOAT_NE:
+                    return float1(fs, globals, locals) != term2.evalFloat(fs, globals, locals);
+                case FLOAT_GT:
+                    return float1(fs, globals, locals) >  term2.evalFloat(fs, globals, locals);
+                case FLOAT_GE:
+                    return float1(fs, globals, locals) >= term2.evalFloat(fs, globals, locals);
+
+                case CHAR_LT:
+                    return char1(fs, globals, locals) <  term2.evalChar(fs, globals, locals);
+                case CHAR_LE:
+                    return char1(fs, globals, locals) <= term2.evalChar(fs, globals, locals);
+                case CHAR_EQ:
+                    return char1(fs, globals, locals) == term2.evalChar(fs, globals, locals);
+                case CHAR_NE:
+                    return char1(fs, globals, locals) != term2.evalChar(fs, globals, locals);
+                case CHAR_GT:
+                    return char1(fs, globals, locals) >  term2.evalChar(fs, globals, locals);
+                case CHAR_GE:
+                    return char1(fs, globals, locals) >= term2.evalChar(fs, globals, locals);
+
+                case BOOL_EQ:
+                    return bool1(fs, globals, locals) == term2.evalBool(fs, globals, locals);
+                case BOOL_NE:
+                    return bool1(fs, globals, locals) != term2.evalBool(fs, globals, locals);
+                // Unable to compare boolean in Java : BOOL< BOOL<= BOOL> BOOL>=
+
+                // both operands are always evaluated, as in M : no short circuit
+                case AND: {
+                    boolean b1 = bool1(fs, globals, locals);
+                    boolean b2 = term2.evalBool(fs, globals, locals);
+                    return b1 && b2;
+                }
+                case OR: {
+                    boolean b1 = bool1(fs, globals, locals);
+                    boolean b2 = term2.evalBool(fs, globals, locals);
+                    return b1 || b2;
+                }
+                default:
+                    break;
+            }
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + op);
+        }
+
+        throw new IllegalArgumentException("apply binary error : " + op);
+    }
+
+    // term1, unboxed; if it is undefined, term2 is still evaluated, for its
+    // side effects, before Undef is raised, as M would evaluate both first
+    private int int1(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            return term1.evalInt(fs, globals, locals);
+        } catch (Undef u) {
+            term2.M(fs, globals, locals);
+            throw u;
+        }
+    }
+
+    private float float1(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            return term1.evalFloat(fs, globals, locals);
+        } catch (Undef u) {
+            term2.M(fs, globals, locals);
+            throw u;
+        }
+    }
+
+    private char char1(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            return term1.evalChar(fs, globals, locals);
+        } catch (Undef u) {
+            term2.M(fs, globals, locals);
+            throw u;
+        }
+    }
+
+    private boolean bool1(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            return term1.evalBool(fs, globals, locals);
+        } catch (Undef u) {
+            term2.M(fs, globals, locals);
+            throw u;
+        }
+    }
 }
 
 class Unary extends Expression {
     // Unary = Operator op; Expression term
     Operator op;
     Expression term;
+    private Type type; // set by VT, as for Binary
 
     Unary (Operator o, Expression e) {
         op = o; term = e;
@@ -1441,7 +1692,10 @@ class Unary extends Expression {
 
     @Override
     protected Type typeOf(Functions fs, TypeMap tm) {
-        if (op.NotOp()) {
+        if (type != null) {
+            return type;
+        }
+        else if (op.NotOp()) {
             return Type.BOOL;
         }
         else if (op.NegateOp()) {
@@ -1461,11 +1715,8 @@ class Unary extends Expression {
         }
     }
 
-    @Override
-    public void V(Functions fs, TypeMap tm) {
-        term.V(fs, tm);
-
-        Type tp = term.typeOf(fs, tm);
+    // checks this over a term typed tp, and keeps its type
+    private void check(Type tp) {
         if (op.NotOp()) {
             check(tp == Type.BOOL, "unary type error : " + op);
         }
@@ -1484,22 +1735,32 @@ class Unary extends Expression {
         else {
             throw new IllegalArgumentException("unary type error : " + op);
         }
+
+        type = op.NotOp() ? Type.BOOL : op.NegateOp() ? tp
+             : op.intOp() ? Type.INT : op.floatOp() ? Type.FLOAT : Type.CHAR;
     }
 
     @Override
-    public Unary T(Functions fs, TypeMap tm) {
+    public Unary VT(Functions fs, TypeMap tm) {
+        Expression e = term.VT(fs, tm);
+
         Type t = term.typeOf(fs, tm);
-        Expression e = term.T(fs, tm);
+        check(t);
 
+        return typed(t, e);
+    }
+
+    // the typed Unary of e, the transformed term, typed t
+    private Unary typed(Type t, Expression e) {
         if ((t == Type.BOOL) && (op.NotOp())) {
-            return new Unary(new Operator(Operator.NOT), e);
+            return new Unary(new Operator(Opcode.NOT), e);
         }
         else if (op.NegateOp()) {
             if (t == Type.FLOAT) {
-                return new Unary(new Operator(Operator.FLOAT_NEG), e);
+                return new Unary(new Operator(Opcode.FLOAT_NEG), e);
             }
             else if (t == Type.INT) {
-                return new Unary(new Operator(Operator.INT_NEG), e);
+                return new Unary(new Operator(Opcode.INT_NEG), e);
             }
             else {
                 throw new IllegalArgumentException("type transform error : " + op);
@@ -1507,20 +1768,20 @@ class Unary extends Expression {
         }
         else if (op.intOp()) {
             if (t == Type.FLOAT) {
-                return new Unary(new Operator(Operator.F2I), e);
+                return new Unary(new Operator(Opcode.F2I), e);
             }
             else if (t == Type.CHAR) {
-                return new Unary(new Operator(Operator.C2I), e);
+                return new Unary(new Operator(Opcode.C2I), e);
             }
             else {
                 throw new IllegalArgumentException("type transform error : " + op);
             }
         }
         else if ((t == Type.INT) && op.floatOp()) {
-            return new Unary(new Operator(Operator.I2F), e);
+            return new Unary(new Operator(Opcode.I2F), e);
         }
         else if ((t == Type.INT) && op.charOp()) {
-            return new Unary(new Operator(Operator.I2C), e);
+            return new Unary(new Operator(Opcode.I2C), e);
         }
         else {
             throw new IllegalArgumentException("type transform error : " + op);
@@ -1528,29 +1789,82 @@ class Unary extends Expression {
     }
 
     @Override
-    public Value M(Functions fs, State globals, State locals) {
-        return applyUnary(term.M(fs, globals, locals));
+    public void resolve(Functions fs, HashMap<Variable, Integer> gm, HashMap<Variable, Integer> lm) {
+        term.resolve(fs, gm, lm);
     }
 
-    private Value applyUnary(Value v) {
-        check(!v.isUndef(), "undef value error : " + op);
+    @Override
+    public Value M(Functions fs, Value[] globals, Value[] locals) {
+        // the result is boxed here only; the operand is evaluated unboxed
+        if (op.code.type == Type.INT)
+            return new IntValue(evalInt(fs, globals, locals));
+        if (op.code.type == Type.FLOAT)
+            return new FloatValue(evalFloat(fs, globals, locals));
+        if (op.code.type == Type.CHAR)
+            return new CharValue(evalChar(fs, globals, locals));
+        return new BoolValue(evalBool(fs, globals, locals));
+    }
 
-        if (op.val.equals(Operator.NOT))
-            return new BoolValue(!v.boolValue( ));
-        if (op.val.equals(Operator.INT_NEG))
-            return new IntValue(-v.intValue( ));
-        if (op.val.equals(Operator.FLOAT_NEG))
-            return new FloatValue(-v.floatValue( ));
-        if (op.val.equals(Operator.I2F))
-            return new FloatValue((float)(v.intValue( )));
-        if (op.val.equals(Operator.F2I))
-            return new IntValue((int)(v.floatValue( )));
-        if (op.val.equals(Operator.C2I))
-            return new IntValue((int)(v.charValue( )));
-        if (op.val.equals(Operator.I2C))
-            return new CharValue((char)(v.intValue( )));
+    @Override
+    int evalInt(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            switch (op.code) {
+                case INT_NEG:
+                    return -term.evalInt(fs, globals, locals);
+                case F2I:
+                    return (int)(term.evalFloat(fs, globals, locals));
+                case C2I:
+                    return (int)(term.evalChar(fs, globals, locals));
+                default:
+                    break;
+            }
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + op);
+        }
 
-        throw new IllegalArgumentException("apply binary error : " + op);
+        throw new IllegalArgumentException("apply unary error : " + op);
+    }
+
+    @Override
+    float evalFloat(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            switch (op.code) {
+                case FLOAT_NEG:
+                    return -term.evalFloat(fs, globals, locals);
+                case I2F:
+                    return (float)(term.evalInt(fs, globals, locals));
+                default:
+                    break;
+            }
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + op);
+        }
+
+        throw new IllegalArgumentException("apply unary error : " + op);
+    }
+
+    @Override
+    char evalChar(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            if (op.code == Opcode.I2C)
+                return (char)(term.evalInt(fs, globals, locals));
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + op);
+        }
+
+        throw new IllegalArgumentException("apply unary error : " + op);
+    }
+
+    @Override
+    boolean evalBool(Functions fs, Value[] globals, Value[] locals) {
+        try {
+            if (op.code == Opcode.NOT)
+                return !term.evalBool(fs, globals, locals);
+        } catch (Undef u) {
+            throw new IllegalArgumentException("undef value error : " + op);
+        }
+
+        throw new IllegalArgumentException("apply unary error : " + op);
     }
 }
 
@@ -1631,9 +1945,12 @@ class Operator {
     final static String I2C = "I2C";
     
     String val;
+    Opcode code; // typed operators only, bound by VT
     
     Operator (String s) { val = s; }
 
+    Operator (Opcode c) { val = c.val; code = c; }
+
     public String toString( ) { return val; }
     public boolean equals(Object obj) { return val.equals(obj); }
     
@@ -1652,55 +1969,67 @@ class Operator {
     boolean floatOp ( ) { return val.equals(FLOAT); }
     boolean charOp ( ) { return val.equals(CHAR); }
 
-    final static String intMap[ ] [ ] = {
-        {PLUS, INT_PLUS}, {MINUS, INT_MINUS},
-        {TIMES, INT_TIMES}, {DIV, INT_DIV}, {REM, INT_REM},
-        {EQ, INT_EQ}, {NE, INT_NE}, {LT, INT_LT},
-        {LE, INT_LE}, {GT, INT_GT}, {GE, INT_GE},
-        {NEG, INT_NEG}, {FLOAT, I2F}, {CHAR, I2C}
+    final static Opcode intMap[ ] = {
+        Opcode.INT_PLUS, Opcode.INT_MINUS,
+        Opcode.INT_TIMES, Opcode.INT_DIV, Opcode.INT_REM,
+        Opcode.INT_EQ, Opcode.INT_NE, Opcode.INT_LT,
+        Opcode.INT_LE, Opcode.INT_GT, Opcode.INT_GE,
+        Opcode.INT_NEG, Opcode.I2F, Opcode.I2C
     };
 
-    final static String floatMap[ ] [ ] = {
-        {PLUS, FLOAT_PLUS}, {MINUS, FLOAT_MINUS},
-        {TIMES, FLOAT_TIMES}, {DIV, FLOAT_DIV}, {REM, FLOAT_REM},
-        {EQ, FLOAT_EQ}, {NE, FLOAT_NE}, {LT, FLOAT_LT},
-        {LE, FLOAT_LE}, {GT, FLOAT_GT}, {GE, FLOAT_GE},
-        {NEG, FLOAT_NEG}, {INT, F2I}
+    final static Opcode floatMap[ ] = {
+        Opcode.FLOAT_PLUS, Opcode.FLOAT_MINUS,
+        Opcode.FLOAT_TIMES, Opcode.FLOAT_DIV, Opcode.FLOAT_REM,
+        Opcode.FLOAT_EQ, Opcode.FLOAT_NE, Opcode.FLOAT_LT,
+        Opcode.FLOAT_LE, Opcode.FLOAT_GT, Opcode.FLOAT_GE,
+        Opcode.FLOAT_NEG, Opcode.F2I
     };
 
-    final static String charMap[ ] [ ] = {
-        {EQ, CHAR_EQ}, {NE, CHAR_NE}, {LT, CHAR_LT},
-        {LE, CHAR_LE}, {GT, CHAR_GT}, {GE, CHAR_GE},
-        {INT, C2I}
+    final static Opcode charMap[ ] = {
+        Opcode.CHAR_EQ, Opcode.CHAR_NE, Opcode.CHAR_LT,
+        Opcode.CHAR_LE, Opcode.CHAR_GT, Opcode.CHAR_GE,
+        Opcode.C2I
     };
 
-    final static String boolMap[ ] [ ] = {
-        {EQ, BOOL_EQ}, {NE, BOOL_NE}, {LT, BOOL_LT},
-        {LE, BOOL_LE}, {GT, BOOL_GT}, {GE, BOOL_GE},
+    final static Opcode boolMap[ ] = {
+        Opcode.BOOL_EQ, Opcode.BOOL_NE, Opcode.BOOL_LT,
+        Opcode.BOOL_LE, Opcode.BOOL_GT, Opcode.BOOL_GE,
+        Opcode.AND, Opcode.OR
     };
 
-    final static private Operator map (String[][] tmap, String op) {
-        for (int i = 0; i < tmap.length; i++)
-            if (tmap[i][0].equals(op))
-                return new Operator(tmap[i][1]);
-        assert false : "should never reach here";
-        return null;
+    // untyped operator -> opcode, first entry wins (so "-" is binary minus)
+    final static private HashMap<String, Opcode> index (Opcode[] tmap) {
+        HashMap<String, Opcode> index = new HashMap<>();
+        for (Opcode c : tmap)
+            index.putIfAbsent(c.op, c);
+        return index;
+    }
+
+    final static private HashMap<String, Opcode> intIndex = index(intMap);
+    final static private HashMap<String, Opcode> floatIndex = index(floatMap);
+    final static private HashMap<String, Opcode> charIndex = index(charMap);
+    final static private HashMap<String, Opcode> boolIndex = index(boolMap);
+
+    final static private Operator map (HashMap<String, Opcode> tmap, String op) {
+        Opcode c = tmap.get(op);
+        assert c != null : "should never reach here";
+        return c == null ? null : new Operator(c);
     }
 
     final static public Operator intMap (String op) {
-        return map (intMap, op);
+        return map (intIndex, op);
     }
 
     final static public Operator floatMap (String op) {
-        return map (floatMap, op);
+        return map (floatIndex, op);
     }
 
     final static public Operator charMap (String op) {
-        return map (charMap, op);
+        return map (charIndex, op);
     }
 
     final static public Operator boolMap (String op) {
-        return map (boolMap, op);
+        return map (boolIndex, op);
     }
 
     public void display(int i) {
@@ -1709,4 +2038,60 @@ class Operator {
         }
         System.out.println(val);
     }
-}
\ No newline at end of file
+}
+
+enum Opcode {
+    // Typed operators, dispatched on by the evalInt / evalFloat / evalChar /
+    // evalBool of Binary and Unary, and by the compilers of the other engines
+    // op is the untyped operator, val the typed one shown by display,
+    // type the type of the result
+    INT_PLUS(Operator.PLUS, Operator.INT_PLUS, Type.INT),
+    INT_MINUS(Operator.MINUS, Operator.INT_MINUS, Type.INT),
+    INT_TIMES(Operator.TIMES, Operator.INT_TIMES, Type.INT),
+    INT_DIV(Operator.DIV, Operator.INT_DIV, Type.INT),
+    INT_REM(Operator.REM, Operator.INT_REM, Type.INT),
+    INT_LT(Operator.LT, Operator.INT_LT, Type.BOOL),
+    INT_LE(Operator.LE, Operator.INT_LE, Type.BOOL),
+    INT_EQ(Operator.EQ, Operator.INT_EQ, Type.BOOL),
+    INT_NE(Operator.NE, Operator.INT_NE, Type.BOOL),
+    INT_GT(Operator.GT, Operator.INT_GT, Type.BOOL),
+    INT_GE(Operator.GE, Operator.INT_GE, Type.BOOL),
+    INT_NEG(Operator.NEG, Operator.INT_NEG, Type.INT),
+    FLOAT_PLUS(Operator.PLUS, Operator.FLOAT_PLUS, Type.FLOAT),
+    FLOAT_MINUS(Operator.MINUS, Operator.FLOAT_MINUS, Type.FLOAT),
+    FLOAT_TIMES(Operator.TIMES, Operator.FLOAT_TIMES, Type.FLOAT),
+    FLOAT_DIV(Operator.DIV, Operator.FLOAT_DIV, Type.FLOAT),
+    FLOAT_REM(Operator.REM, Operator.FLOAT_REM, Type.FLOAT),
+    FLOAT_LT(Operator.LT, Operator.FLOAT_LT, Type.BOOL),
+    FLOAT_LE(Operator.LE, Operator.FLOAT_LE, Type.BOOL),
+    FLOAT_EQ(Operator.EQ, Operator.FLOAT_EQ, Type.BOOL),
+    FLOAT_NE(Operator.NE, Operator.FLOAT_NE, Type.BOOL),
+    FLOAT_GT(Operator.GT, Operator.FLOAT_GT, Type.BOOL),
+    FLOAT_GE(Operator.GE, Operator.FLOAT_GE, Type.BOOL),
+    FLOAT_NEG(Operator.NEG, Operator.FLOAT_NEG, Type.FLOAT),
+    CHAR_LT(Operator.LT, Operator.CHAR_LT, Type.BOOL),
+    CHAR_LE(Operator.LE, Operator.CHAR_LE, Type.BOOL),
+    CHAR_EQ(Operator.EQ, Operator.CHAR_EQ, Type.BOOL),
+    CHAR_NE(Operator.NE, Operator.CHAR_NE, Type.BOOL),
+    CHAR_GT(Operator.GT, Operator.CHAR_GT, Type.BOOL),
+    CHAR_GE(Operator.GE, Operator.CHAR_GE, Type.BOOL),
+    BOOL_LT(Operator.LT, Operator.BOOL_LT, Type.BOOL),
+    BOOL_LE(Operator.LE, Operator.BOOL_LE, Type.BOOL),
+    BOOL_EQ(Operator.EQ, Operator.BOOL_EQ, Type.BOOL),
+    BOOL_NE(Operator.NE, Operator.BOOL_NE, Type.BOOL),
+    BOOL_GT(Operator.GT, Operator.BOOL_GT, Type.BOOL),
+    BOOL_GE(Operator.GE, Operator.BOOL_GE, Type.BOOL),
+    AND(Operator.AND, Operator.AND, Type.BOOL),
+    OR(Operator.OR, Operator.OR, Type.BOOL),
+    NOT(Operator.NOT, Operator.NOT, Type.BOOL),
+    I2F(Operator.FLOAT, Operator.I2F, Type.FLOAT),
+    F2I(Operator.INT, Operator.F2I, Type.INT),
+    C2I(Operator.INT, Operator.C2I, Type.INT),
+    I2C(Operator.CHAR, Operator.I2C, Type.CHAR);
+
+    final String op;
+    final String val;
+    final Type type;
+
+    Opcode (String o, String v, Type t) { op = o; val = v; type = t; }
+}
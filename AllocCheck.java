@@ -0,0 +1,97 @@
+import java.io.*;
+import java.lang.management.*;
+
+public class AllocCheck {
+    // Allocation check of the tree walker's unboxed path :
+    //     java AllocCheck [trips] [runs]
+    // Runs the inner loop of code/prime.cl, trial division of a prime x,
+    // by Program.M for x about trips (1000000 by default) and 2 * trips,
+    // runs times each (5 by default) after a warm-up, and takes the
+    // fewest bytes the thread allocated for each, by ThreadMXBean. The
+    // difference over the extra trips is what one trip allocates, and has
+    // to be less than the smallest Value : exits 1 if it is not.
+
+    // an IntValue or BoolValue, header and fields, with compressed oops
+    static final long VALUE = 16;
+
+    public static void main(String[] args) {
+        int trips = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!mx.isThreadAllocatedMemorySupported()) {
+            System.err.println("thread allocation accounting is not supported");
+            System.exit(2);
+        }
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        int small = prime(trips), large = prime(2 * trips);
+        Program warm = program(prime(trips / 10));
+        for (int r = 0; r < 20; r++) run(warm);
+
+        long a = fewest(mx, program(small), runs);
+        long b = fewest(mx, program(large), runs);
+        double per = (double) (b - a) / (large - small);
+
+        System.out.println("[ x = " + small + " : " + a + " bytes, x = " + large + " : " + b + " bytes, "
+                + String.format("%.3f", per) + " bytes a trip ]");
+        if (per >= VALUE) {
+            System.out.println("a Value is allocated per trip");
+            System.exit(1);
+        }
+        System.out.println("no Value is allocated per trip");
+    }
+
+    // the fewest bytes this thread allocated over runs runs of prog
+    private static long fewest(com.sun.management.ThreadMXBean mx, Program prog, int runs) {
+        long id = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+
+        for (int r = 0; r < runs; r++) {
+            long start = mx.getThreadAllocatedBytes(id);
+            run(prog);
+            best = Math.min(best, mx.getThreadAllocatedBytes(id) - start);
+        }
+        return best;
+    }
+
+    private static void run(Program prog) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            prog.M();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    // the inner loop of code/prime.cl for one x, type checked and resolved
+    private static Program program(int x) {
+        return Semantics.checked("int main() {\n"
+                + "    int x, i, max;\n"
+                + "    bool isp;\n"
+                + "    x = " + x + ";\n"
+                + "    max = x;\n"
+                + "    isp = true;\n"
+                + "    i = 2;\n"
+                + "    while (i < x) {\n"
+                + "        if (x % i == 0) {\n"
+                + "            isp = false;\n"
+                + "            i = max;\n"
+                + "        }\n"
+                + "        i = i + 1;\n"
+                + "    }\n"
+                + "    return 0;\n"
+                + "}\n");
+    }
+
+    // the least prime not below n
+    private static int prime(int n) {
+        for (int x = Math.max(n, 2); ; x++) {
+            boolean p = true;
+            for (int d = 2; (long) d * d <= x && p; d++) p = x % d != 0;
+            if (p) return x;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import java.io.*;
+import java.util.jar.*;
+
+public class Aot {
+    // Writes a Program as a runnable jar : one class, compiled by
+    // JitCompiler with its runtime helpers and a main method inside,
+    // so that `java -jar` runs it with nothing but the JDK.
+
+    public static void write(Program prog, String jar) throws IOException {
+        byte[] bytes = JitCompiler.standalone(prog);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, JitCompiler.NAME);
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            out.putNextEntry(new JarEntry(JitCompiler.NAME + ".class"));
+            out.write(bytes);
+            out.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// Compact bytecode for the stack VM : one int[] code array shared by
+// all functions, a constant pool, and per-function entry points and
+// frame sizes. Produced by Compiler from the typed, resolved AST.
+
+public class Bytecode {
+    // Instruction set; operands follow the opcode in code[]
+    static final int CONST = 0;     // k        push constants[k]
+    static final int LOAD = 1;      // s        push local slot s
+    static final int STORE = 2;     // s        pop into local slot s
+    static final int GLOAD = 3;     // g        push global slot g
+    static final int GSTORE = 4;    // g        pop into global slot g
+    static final int POP = 5;       //          drop top of stack
+    static final int JUMP = 6;      // t        pc = t
+    static final int JUMPF = 7;     // t n      pop bool, pc = t when false
+    static final int CALL = 8;      // f        call function f, args on stack
+    static final int RET = 9;       //          return top of stack
+    static final int RETDEF = 10;   //          return undef (no return executed)
+    static final int PRINT = 11;    // t        pop and print as type t
+    static final int FAIL = 12;     // n        throw strings[n]
+
+    static final int IADD = 13, ISUB = 14, IMUL = 15, IDIV = 16, IREM = 17, INEG = 18;
+    static final int FADD = 19, FSUB = 20, FMUL = 21, FDIV = 22, FREM = 23, FNEG = 24;
+    static final int ILT = 25, ILE = 26, IEQ = 27, INE = 28, IGT = 29, IGE = 30;
+    static final int FLT = 31, FLE = 32, FEQ = 33, FNE = 34, FGT = 35, FGE = 36;
+    static final int CLT = 37, CLE = 38, CEQ = 39, CNE = 40, CGT = 41, CGE = 42;
+    static final int BEQ = 43, BNE = 44, AND = 45, OR = 46, NOT = 47;
+    static final int I2F = 48, F2I = 49, C2I = 50, I2C = 51;
+
+    static final int OPCODES = 52;
+
+    // operand count of each instruction, for walking code[]
+    static final int[] OPERANDS = new int[OPCODES];
+    // typed operator behind each arithmetic instruction, for error messages
+    static final Opcode[] TYPED = new Opcode[OPCODES];
+
+    // PRINT operand
+    static final int P_INT = 0, P_FLOAT = 1, P_CHAR = 2, P_BOOL = 3, P_VOID = 4;
+
+    // Every stack and frame entry is a long : int, char and bool are held
+    // as their int value, float as its raw int bits. UNDEF is outside the
+    // int range, so it can never be a real value.
+    static final long UNDEF = Long.MIN_VALUE;
+
+    static {
+        OPERANDS[CONST] = 1; OPERANDS[LOAD] = 1; OPERANDS[STORE] = 1;
+        OPERANDS[GLOAD] = 1; OPERANDS[GSTORE] = 1; OPERANDS[JUMP] = 1;
+        OPERANDS[JUMPF] = 2; OPERANDS[CALL] = 1; OPERANDS[PRINT] = 1;
+        OPERANDS[FAIL] = 1;
+
+        for (Opcode c : Opcode.values()) {
+            int op = of(c);
+            if (op >= 0) TYPED[op] = c;
+        }
+    }
+
+    // instruction for a typed operator, -1 when the VM has none
+    static int of(Opcode c) {
+        switch (c) {
+            case INT_PLUS: return IADD;
+            case INT_MINUS: return ISUB;
+            case INT_TIMES: return IMUL;
+            case INT_DIV: return IDIV;
+            case INT_REM: return IREM;
+            case INT_NEG: return INEG;
+            case FLOAT_PLUS: return FADD;
+            case FLOAT_MINUS: return FSUB;
+            case FLOAT_TIMES: return FMUL;
+            case FLOAT_DIV: return FDIV;
+            case FLOAT_REM: return FREM;
+            case FLOAT_NEG: return FNEG;
+            case INT_LT: return ILT;
+            case INT_LE: return ILE;
+            case INT_EQ: return IEQ;
+            case INT_NE: return INE;
+            case INT_GT: return IGT;
+            case INT_GE: return IGE;
+            case FLOAT_LT: return FLT;
+            case FLOAT_LE: return FLE;
+            case FLOAT_EQ: return FEQ;
+            case FLOAT_NE: return FNE;
+            case FLOAT_GT: return FGT;
+            case FLOAT_GE: return FGE;
+            case CHAR_LT: return CLT;
+            case CHAR_LE: return CLE;
+            case CHAR_EQ: return CEQ;
+            case CHAR_NE: return CNE;
+            case CHAR_GT: return CGT;
+            case CHAR_GE: return CGE;
+            case BOOL_EQ: return BEQ;
+            case BOOL_NE: return BNE;
+            case AND: return AND;
+            case OR: return OR;
+            case NOT: return NOT;
+            case I2F: return I2F;
+            case F2I: return F2I;
+            case C2I: return C2I;
+            case I2C: return I2C;
+            default: return -1;
+        }
+    }
+
+    final int[] code;
+    final long[] constants;
+    final String[] strings;
+
+    // per function, indexed by function number
+    final String[] names;
+    final int[] entry;      // first instruction
+    final int[] params;     // number of params, the first slots of the frame
+    final int[] frame;      // frame size : params + locals
+    final int[] stack;      // maximum operand stack depth
+
+    final Declarations globals;
+    final int main;
+
+    Bytecode(int[] code, long[] constants, String[] strings, String[] names,
+             int[] entry, int[] params, int[] frame, int[] stack,
+             Declarations globals, int main) {
+        this.code = code;
+        this.constants = constants;
+        this.strings = strings;
+        this.names = names;
+        this.entry = entry;
+        this.params = params;
+        this.frame = frame;
+        this.stack = stack;
+        this.globals = globals;
+        this.main = main;
+    }
+}
@@ -0,0 +1,715 @@
+import java.util.*;
+
+public class CBackend {
+    // Translates a typed, resolved Program into one C99 source file whose
+    // main prints what the interpreter prints after [ Program Meaning ].
+    //
+    // Globals, locals, params and results are int64_t in the Bytecode
+    // encoding, with UNDEF for undefined; operators check their operands
+    // and work on plain int32_t or float. Every subexpression goes into
+    // its own temporary, in the order the tree walker evaluates it, so
+    // side effects and the first failing check come out the same; the C
+    // compiler folds the temporaries away. Int arithmetic wraps and float
+    // arithmetic is single precision, as in Java.
+
+    private final Program prog;
+    private final StringBuilder out = new StringBuilder();
+    private int indent;
+    private int temps;          // temporaries of the function being translated
+    private TypeMap tm;
+    private Function current;
+
+    private static final char I = 'I', F = 'F', J = 'J';
+
+    // a C expression without side effects, and its kind
+    private static class Operand {
+        final String text;
+        final char kind;
+
+        Operand(String text, char kind) {
+            this.text = text;
+            this.kind = kind;
+        }
+    }
+
+    private CBackend(Program prog) {
+        this.prog = prog;
+    }
+
+    public static String translate(Program prog) {
+        CBackend c = new CBackend(prog);
+        c.program();
+        return c.out.toString();
+    }
+
+    private void program() {
+        out.append(RUNTIME);
+
+        line("");
+        for (Declaration d : prog.globals) {
+            line("static int64_t " + global(d.v) + " = UNDEF;");
+        }
+
+        line("");
+        for (Function f : prog.functions) {
+            line("static int64_t " + function(f) + parameters(f) + ";");
+        }
+
+        for (Function f : prog.functions) {
+            line("");
+            function(f, typeMap(f));
+        }
+
+        line("");
+        line("int main(void) {");
+        indent++;
+        line("setvbuf(stdout, NULL, _IOFBF, 1 << 16);");
+        line(function(prog.functions.find(new Variable("main"))) + "();");
+
+        // same order as State, a HashMap, would list them
+        State order = new State();
+        for (Declaration d : prog.globals) {
+            order.put(d.v, Value.mkValue(d.t));
+        }
+
+        TypeMap gm = TypeChecker.typing(prog.globals);
+        String text = "\\n\\n[ Final Globals ]\\n[";
+        for (Variable v : order.keySet()) {
+            line("fputs(\"" + text + v + "=\", stdout);");
+            line("print_value(" + global(v) + ", " + printType(gm.get(v)) + ");");
+            text = ", ";
+        }
+        line("fputs(\"" + (order.isEmpty() ? text : "") + "]\\n\\n\", stdout);");
+        line("return 0;");
+        indent--;
+        line("}");
+    }
+
+    private TypeMap typeMap(Function f) {
+        TypeMap m = TypeChecker.typing(prog.globals);
+        m.putAll(TypeChecker.typing(f.params));
+        m.putAll(TypeChecker.typing(f.locals));
+        return m;
+    }
+
+    private void function(Function f, TypeMap m) {
+        tm = m;
+        current = f;
+        temps = 0;
+
+        line("static int64_t " + function(f) + parameters(f) + " {");
+        indent++;
+        for (Declaration d : f.locals) {
+            line("int64_t " + local(d.v) + " = UNDEF;");
+        }
+        statement(f.body);
+        line("return UNDEF;"); // fell off the end
+        indent--;
+        line("}");
+    }
+
+    private static String parameters(Function f) {
+        if (f.params.isEmpty()) return "(void)";
+
+        StringJoiner ps = new StringJoiner(", ", "(", ")");
+        for (Declaration d : f.params) {
+            ps.add("int64_t " + local(d.v));
+        }
+        return ps.toString();
+    }
+
+    private void statement(Statement s) {
+        if (s instanceof Skip) {
+            return;
+        }
+        else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) {
+                statement(m);
+            }
+        }
+        else if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            Operand v = expression(a.source);
+            line(variable(a.target) + " = " + encode(v) + ";");
+        }
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            line("if (" + test(c.test) + ") {");
+            indent++;
+            statement(c.thenbranch);
+            indent--;
+
+            if (c.elsebranch != null) {
+                line("} else {");
+                indent++;
+                statement(c.elsebranch);
+                indent--;
+            }
+            line("}");
+        }
+        else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            line("for (;;) {");
+            indent++;
+            line("if (!(" + test(l.test) + ")) break;");
+            statement(l.body);
+            indent--;
+            line("}");
+        }
+        else if (s instanceof Print) {
+            Expression e = ((Print) s).expression;
+            Operand v = expression(e);
+            Type t = typeOf(e);
+
+            if (v.kind == J)
+                line("print_value(" + v.text + ", " + printType(t) + ");");
+            else if (v.kind == F)
+                line("print_float(" + v.text + ");");
+            else
+                line((t == Type.CHAR ? "print_char(" : t == Type.BOOL ? "print_bool(" : "print_int(") + v.text + ");");
+        }
+        else if (s instanceof StatementCall) {
+            StatementCall c = (StatementCall) s;
+            line(call(c.function, c.params) + ";");
+        }
+        else if (s instanceof Return) {
+            Operand v = expression(((Return) s).result);
+            line("return " + (current.type == Type.VOID ? "UNDEF" : encode(v)) + ";");
+        }
+        else {
+            throw new UnsupportedOperationException("c : " + s);
+        }
+    }
+
+    // the value of a test, as an int, checked if it may be undef
+    private String test(Expression e) {
+        Operand v = expression(e);
+        if (v.kind != J) return v.text;
+        return temp("int32_t", "defined(" + v.text + ", \"" + escape("undef value error : " + e) + "\")");
+    }
+
+    private Operand expression(Expression e) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            // a call further on may assign the global
+            if (v.isGlobal()) return new Operand(temp("int64_t", global(v)), J);
+            return new Operand(local(v), J);
+        }
+        else if (e instanceof Value) {
+            Value v = (Value) e;
+            if (v.isUndef()) return new Operand("UNDEF", J);
+            if (v.type() == Type.FLOAT) return new Operand(floatLiteral(v.floatValue()), F);
+            return new Operand(Long.toString(Compiler.encode(v)), I);
+        }
+        else if (e instanceof Binary) {
+            return binary((Binary) e);
+        }
+        else if (e instanceof Unary) {
+            return unary((Unary) e);
+        }
+        else if (e instanceof ExpressionCall) {
+            ExpressionCall c = (ExpressionCall) e;
+            return new Operand(temp("int64_t", call(c.function, c.params)), J);
+        }
+
+        throw new UnsupportedOperationException("c : " + e);
+    }
+
+    private Operand binary(Binary b) {
+        String op = b.op.toString();
+        Opcode code = b.op.code;
+        char k = kind(typeOf(b.term1));
+
+        switch (code) {
+            case BOOL_LT: case BOOL_LE: case BOOL_GT: case BOOL_GE:
+                // typed, but not evaluable : fails when reached
+                return fail("apply binary error : " + op, kind(code.type));
+            default:
+                break;
+        }
+
+        // term1 is checked after term2 is evaluated, as the interpreter
+        // evaluates both operands first
+        Operand v = expression(b.term1);
+        String y = operand(b.term2, k, op);
+        String x = defined(v, k, op);
+        String r;
+
+        switch (code) {
+            case INT_PLUS: r = "(int32_t) ((uint32_t) " + x + " + (uint32_t) " + y + ")"; break;
+            case INT_MINUS: r = "(int32_t) ((uint32_t) " + x + " - (uint32_t) " + y + ")"; break;
+            case INT_TIMES: r = "(int32_t) ((uint32_t) " + x + " * (uint32_t) " + y + ")"; break;
+            case INT_DIV: r = "int_div(" + x + ", " + y + ")"; break;
+            case INT_REM: r = "int_rem(" + x + ", " + y + ")"; break;
+            case FLOAT_PLUS: r = x + " + " + y; break;
+            case FLOAT_MINUS: r = x + " - " + y; break;
+            case FLOAT_TIMES: r = x + " * " + y; break;
+            case FLOAT_DIV: r = x + " / " + y; break;
+            case FLOAT_REM: r = "fmodf(" + x + ", " + y + ")"; break;
+            case INT_LT: case CHAR_LT: case FLOAT_LT: r = x + " < " + y; break;
+            case INT_LE: case CHAR_LE: case FLOAT_LE: r = x + " <= " + y; break;
+            case INT_EQ: case CHAR_EQ: case FLOAT_EQ: case BOOL_EQ: r = x + " == " + y; break;
+            case INT_NE: case CHAR_NE: case FLOAT_NE: case BOOL_NE: r = x + " != " + y; break;
+            case INT_GT: case CHAR_GT: case FLOAT_GT: r = x + " > " + y; break;
+            case INT_GE: case CHAR_GE: case FLOAT_GE: r = x + " >= " + y; break;
+            case AND: r = x + " & " + y; break;
+            case OR: r = x + " | " + y; break;
+            default:
+                throw new UnsupportedOperationException("c : " + op);
+        }
+
+        char result = kind(code.type);
+        return new Operand(temp(result == F ? "float" : "int32_t", r), result);
+    }
+
+    private Operand unary(Unary u) {
+        String op = u.op.toString();
+
+        switch (u.op.code) {
+            case INT_NEG: return new Operand(temp("int32_t", "(int32_t) (0u - (uint32_t) " + operand(u.term, I, op) + ")"), I);
+            case FLOAT_NEG: return new Operand(temp("float", "-" + operand(u.term, F, op)), F);
+            case NOT: return new Operand(temp("int32_t", operand(u.term, I, op) + " ^ 1"), I);
+            case I2F: return new Operand(temp("float", "(float) " + operand(u.term, I, op)), F);
+            case F2I: return new Operand(temp("int32_t", "float_to_int(" + operand(u.term, F, op) + ")"), I);
+            case C2I: return new Operand(operand(u.term, I, op), I);
+            case I2C: return new Operand(temp("int32_t", "(uint16_t) " + operand(u.term, I, op)), I);
+            default:
+                return fail("apply unary error : " + op, kind(u.op.code.type));
+        }
+    }
+
+    // e as a k, checked as soon as it is produced if it may be undef
+    private String operand(Expression e, char k, String op) {
+        return defined(expression(e), k, op);
+    }
+
+    // v as a k, checked if it may be undef
+    private String defined(Operand v, char k, String op) {
+        if (v.kind != J) return v.text;
+
+        String message = "\"" + escape("undef value error : " + op) + "\"";
+        if (k == F) return temp("float", "defined_float(" + v.text + ", " + message + ")");
+        return temp("int32_t", "defined(" + v.text + ", " + message + ")");
+    }
+
+    private Operand fail(String message, char k) {
+        String r = "fail(\"" + escape(message) + "\")";
+        return new Operand(temp(k == F ? "float" : "int32_t", r), k);
+    }
+
+    private String call(Function f, ArrayList<Expression> args) {
+        StringJoiner as = new StringJoiner(", ", "(", ")");
+        for (Expression a : args) {
+            as.add(encode(expression(a)));
+        }
+        return function(f) + as;
+    }
+
+    private String temp(String type, String value) {
+        String t = "t" + ++temps;
+        line(type + " " + t + " = " + value + ";");
+        return t;
+    }
+
+    private static String encode(Operand v) {
+        if (v.kind == F) return "float_bits(" + v.text + ")";
+        if (v.kind == I) return "(int64_t) " + v.text;
+        return v.text;
+    }
+
+    private static char kind(Type t) {
+        return t == Type.FLOAT ? F : I;
+    }
+
+    private Type typeOf(Expression e) {
+        if (e instanceof Variable) return tm.get(e);
+        if (e instanceof Value) return ((Value) e).type();
+        if (e instanceof Binary) return ((Binary) e).op.code.type;
+        if (e instanceof Unary) return ((Unary) e).op.code.type;
+        if (e instanceof ExpressionCall) return ((ExpressionCall) e).function.type;
+        throw new UnsupportedOperationException("c : " + e);
+    }
+
+    private static int printType(Type t) {
+        if (t == Type.INT) return Bytecode.P_INT;
+        if (t == Type.FLOAT) return Bytecode.P_FLOAT;
+        if (t == Type.CHAR) return Bytecode.P_CHAR;
+        if (t == Type.BOOL) return Bytecode.P_BOOL;
+        return Bytecode.P_VOID;
+    }
+
+    // names are prefixed so that no CLite identifier meets a C one
+
+    private String variable(Variable v) {
+        return v.isGlobal() ? global(v) : local(v);
+    }
+
+    private static String global(Variable v) {
+        return "g_" + v;
+    }
+
+    private static String local(Variable v) {
+        return "l_" + v;
+    }
+
+    private static String function(Function f) {
+        return "f_" + f.name;
+    }
+
+    private static String floatLiteral(float v) {
+        return "(float) " + Float.toHexString(v) + "f";
+    }
+
+    private static String escape(String s) {
+        StringBuilder b = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') b.append('\\');
+            if (c == '\n') b.append("\\n");
+            else b.append(c);
+        }
+        return b.toString();
+    }
+
+    private void line(String s) {
+        for (int i = 0; i < indent; i++) {
+            out.append("    ");
+        }
+        out.append(s).append('\n');
+    }
+
+    // Helpers every translation starts with. Printing follows Java :
+    // floats as Float.toString writes them, chars as UTF-8, errors on
+    // stderr with exit status 1, as Semantics reports them.
+    private static final String RUNTIME = String.join("\n",
+        "/* CLite program, translated by CBackend */",
+        "#include <math.h>",
+        "#include <stdint.h>",
+        "#include <stdio.h>",
+        "#include <stdlib.h>",
+        "#include <string.h>",
+        "",
+        "#define UNDEF INT64_MIN",
+        "",
+        "static int32_t fail(const char *message) {",
+        "    fflush(stdout);",
+        "    fprintf(stderr, \"%s\\n\", message);",
+        "    exit(1);",
+        "}",
+        "",
+        "static inline int32_t defined(int64_t v, const char *message) {",
+        "    if (v == UNDEF) fail(message);",
+        "    return (int32_t) v;",
+        "}",
+        "",
+        "static inline float defined_float(int64_t v, const char *message) {",
+        "    int32_t b = defined(v, message);",
+        "    float f;",
+        "    memcpy(&f, &b, sizeof f);",
+        "    return f;",
+        "}",
+        "",
+        "static inline int64_t float_bits(float f) {",
+        "    int32_t b;",
+        "    memcpy(&b, &f, sizeof b);",
+        "    return b;",
+        "}",
+        "",
+        "static inline int32_t int_div(int32_t x, int32_t y) {",
+        "    if (y == 0) fail(\"/ by zero\");",
+        "    return y == -1 ? (int32_t) (0u - (uint32_t) x) : x / y;",
+        "}",
+        "",
+        "static inline int32_t int_rem(int32_t x, int32_t y) {",
+        "    if (y == 0) fail(\"/ by zero\");",
+        "    return y == -1 ? 0 : x % y;",
+        "}",
+        "",
+        "static inline int32_t float_to_int(float f) {",
+        "    if (f != f) return 0;",
+        "    if (f >= 2147483648.0f) return INT32_MAX;",
+        "    if (f <= -2147483648.0f) return INT32_MIN;",
+        "    return (int32_t) f;",
+        "}",
+        "",
+        "static void print_int(int32_t v) {",
+        "    printf(\"%d\", (int) v);",
+        "}",
+        "",
+        "static void print_bool(int32_t v) {",
+        "    fputs(v ? \"true\" : \"false\", stdout);",
+        "}",
+        "",
+        "static void print_char(int32_t v) {",
+        "    if (v < 0x80) {",
+        "        putchar(v);",
+        "    } else if (v < 0x800) {",
+        "        putchar(0xc0 | v >> 6);",
+        "        putchar(0x80 | (v & 0x3f));",
+        "    } else if (v >= 0xd800 && v < 0xe000) {",
+        "        putchar('?');",
+        "    } else {",
+        "        putchar(0xe0 | v >> 12);",
+        "        putchar(0x80 | (v >> 6 & 0x3f));",
+        "        putchar(0x80 | (v & 0x3f));",
+        "    }",
+        "}",
+        "",
+        "/* Float.toString as Java 17 writes it : a port of FloatingDecimal.dtoa",
+        "   for floats, which picks its digits in its own way */",
+        "typedef struct { uint32_t w[8]; } big;",
+        "",
+        "static void big_mul(big *x, uint32_t k) {",
+        "    uint64_t carry = 0;",
+        "    int i;",
+        "    for (i = 0; i < 8; i++) {",
+        "        uint64_t t = (uint64_t) x->w[i] * k + carry;",
+        "        x->w[i] = (uint32_t) t;",
+        "        carry = t >> 32;",
+        "    }",
+        "}",
+        "",
+        "/* v * 5^p5 * 2^p2 */",
+        "static void big_set(big *x, uint64_t v, int p5, int p2) {",
+        "    memset(x, 0, sizeof *x);",
+        "    x->w[0] = (uint32_t) v;",
+        "    x->w[1] = (uint32_t) (v >> 32);",
+        "    while (p5-- > 0) big_mul(x, 5);",
+        "    while (p2-- > 0) big_mul(x, 2);",
+        "}",
+        "",
+        "static int big_cmp(const big *a, const big *b) {",
+        "    int i;",
+        "    for (i = 7; i >= 0; i--) {",
+        "        if (a->w[i] != b->w[i]) return a->w[i] < b->w[i] ? -1 : 1;",
+        "    }",
+        "    return 0;",
+        "}",
+        "",
+        "static void big_add(big *r, const big *a, const big *b) {",
+        "    uint64_t carry = 0;",
+        "    int i;",
+        "    for (i = 0; i < 8; i++) {",
+        "        uint64_t t = (uint64_t) a->w[i] + b->w[i] + carry;",
+        "        r->w[i] = (uint32_t) t;",
+        "        carry = t >> 32;",
+        "    }",
+        "}",
+        "",
+        "static void big_sub(big *a, const big *b) {",
+        "    int64_t borrow = 0;",
+        "    int i;",
+        "    for (i = 0; i < 8; i++) {",
+        "        int64_t t = (int64_t) a->w[i] - b->w[i] - borrow;",
+        "        a->w[i] = (uint32_t) t;",
+        "        borrow = t < 0;",
+        "    }",
+        "}",
+        "",
+        "/* b / s, leaving 10 * (b % s) in b */",
+        "static int big_digit(big *b, const big *s) {",
+        "    int q = 0;",
+        "    while (big_cmp(b, s) >= 0) {",
+        "        big_sub(b, s);",
+        "        q++;",
+        "    }",
+        "    big_mul(b, 10);",
+        "    return q;",
+        "}",
+        "",
+        "/* Java int or long arithmetic, by width */",
+        "static int64_t wrap(uint64_t v, int bits) {",
+        "    return bits == 32 ? (int64_t) (int32_t) (uint32_t) v : (int64_t) v;",
+        "}",
+        "",
+        "static const int N_5_BITS[] = { 0, 3, 5, 7, 10, 12, 14, 17, 19, 21, 24, 26, 28, 31,",
+        "    33, 35, 38, 40, 42, 45, 47, 49, 52, 54, 56, 59, 61 };",
+        "",
+        "static void print_float(float v) {",
+        "    char digits[32];",
+        "    int n = 0, decExp, decExponent, i;",
+        "    int binExp, nSignificantBits, tailZeros, nFractBits, nTinyBits;",
+        "    int low, high;",
+        "    int64_t lowDigitDifference = 0;",
+        "    uint32_t fbits;",
+        "    uint64_t fractBits;",
+        "",
+        "    memcpy(&fbits, &v, sizeof fbits);",
+        "    if (v != v) { fputs(\"NaN\", stdout); return; }",
+        "    if (isinf(v)) { fputs(v > 0 ? \"Infinity\" : \"-Infinity\", stdout); return; }",
+        "    if (v == 0) { fputs(fbits >> 31 ? \"-0.0\" : \"0.0\", stdout); return; }",
+        "    if (fbits >> 31) putchar('-');",
+        "",
+        "    fractBits = fbits & 0x7fffff;",
+        "    binExp = fbits >> 23 & 0xff;",
+        "    if (binExp == 0) { /* subnormal */",
+        "        int shift = 0;",
+        "        while (!(fractBits << shift & 0x800000)) shift++;",
+        "        fractBits <<= shift;",
+        "        binExp = 1 - shift;",
+        "        nSignificantBits = 24 - shift;",
+        "    } else {",
+        "        fractBits |= 0x800000;",
+        "        nSignificantBits = 24;",
+        "    }",
+        "    binExp -= 127;",
+        "    fractBits <<= 29; /* as a double's fraction */",
+        "",
+        "    for (tailZeros = 0; !(fractBits >> tailZeros & 1); tailZeros++) ;",
+        "    nFractBits = 53 - tailZeros;",
+        "    nTinyBits = nFractBits - binExp - 1 > 0 ? nFractBits - binExp - 1 : 0;",
+        "",
+        "    if (binExp <= 62 && binExp >= -21 && nTinyBits == 0) {",
+        "        /* an integer : its digits, less those beyond the precision */",
+        "        uint64_t l = binExp >= 52 ? fractBits << (binExp - 52) : fractBits >> (52 - binExp);",
+        "        int p = binExp - nSignificantBits - 1, insignificant = 0;",
+        "        if (binExp > nSignificantBits && p > 1) insignificant = p * 30103 / 100000;",
+        "        if (insignificant != 0) {",
+        "            uint64_t pow10 = 1, residue;",
+        "            for (i = 0; i < insignificant; i++) pow10 *= 10;",
+        "            residue = l % pow10;",
+        "            l /= pow10;",
+        "            if (residue >= pow10 >> 1) l++;",
+        "        }",
+        "        n = sprintf(digits, \"%llu\", (unsigned long long) l);",
+        "        decExponent = n + insignificant;",
+        "        while (digits[n - 1] == '0') n--;",
+        "    } else {",
+        "        /* B / S is v scaled to [1, 10), M half its ULP, scaled alike */",
+        "        uint64_t dbits = 0x3ff0000000000000ull | (fractBits & 0xfffffffffffffull);",
+        "        double d2, d;",
+        "        int B2, B5, S2, S5, M2, M5, common, Bbits, tenSbits, q;",
+        "",
+        "        memcpy(&d2, &dbits, sizeof d2);",
+        "        d = (d2 - 1.5) * 0.289529654 + 0.176091259 + (double) binExp * 0.301029995663981;",
+        "        decExp = (int) floor(d);",
+        "",
+        "        B5 = decExp < 0 ? -decExp : 0;",
+        "        B2 = B5 + nTinyBits + binExp;",
+        "        S5 = decExp > 0 ? decExp : 0;",
+        "        S2 = S5 + nTinyBits;",
+        "        M5 = B5;",
+        "        M2 = B2 - nSignificantBits;",
+        "",
+        "        fractBits >>= tailZeros;",
+        "        B2 -= nFractBits - 1;",
+        "        common = B2 < S2 ? B2 : S2;",
+        "        B2 -= common;",
+        "        S2 -= common;",
+        "        M2 -= common;",
+        "        if (nFractBits == 1) M2 -= 1;",
+        "        if (M2 < 0) {",
+        "            B2 -= M2;",
+        "            S2 -= M2;",
+        "            M2 = 0;",
+        "        }",
+        "",
+        "        Bbits = nFractBits + B2 + (B5 < 27 ? N_5_BITS[B5] : B5 * 3);",
+        "        tenSbits = S2 + 1 + (S5 + 1 < 27 ? N_5_BITS[S5 + 1] : (S5 + 1) * 3);",
+        "",
+        "        if (Bbits < 64 && tenSbits < 64) {",
+        "            int bits = Bbits < 32 && tenSbits < 32 ? 32 : 64;",
+        "            uint64_t p5 = 1;",
+        "            int64_t b, s, m, tens;",
+        "",
+        "            for (i = 0; i < B5; i++) p5 *= 5;",
+        "            b = wrap(fractBits * p5 << B2, bits);",
+        "            for (p5 = 1, i = 0; i < S5; i++) p5 *= 5;",
+        "            s = wrap(p5 << S2, bits);",
+        "            for (p5 = 1, i = 0; i < M5; i++) p5 *= 5;",
+        "            m = wrap(p5 << M2, bits);",
+        "            tens = wrap((uint64_t) s * 10, bits);",
+        "",
+        "            q = (int) (b / s);",
+        "            b = wrap((uint64_t) (b % s) * 10, bits);",
+        "            m = wrap((uint64_t) m * 10, bits);",
+        "            low = b < m;",
+        "            high = wrap((uint64_t) b + (uint64_t) m, bits) > tens;",
+        "            if (q == 0 && !high) decExp--;",
+        "            else digits[n++] = (char) ('0' + q);",
+        "            if (decExp < -3 || decExp >= 8) high = low = 0;",
+        "",
+        "            while (!low && !high) {",
+        "                q = (int) (b / s);",
+        "                b = wrap((uint64_t) (b % s) * 10, bits);",
+        "                m = wrap((uint64_t) m * 10, bits);",
+        "                if (m > 0) {",
+        "                    low = b < m;",
+        "                    high = wrap((uint64_t) b + (uint64_t) m, bits) > tens;",
+        "                } else { /* overflowed, as it does in Java */",
+        "                    low = high = 1;",
+        "                }",
+        "                digits[n++] = (char) ('0' + q);",
+        "            }",
+        "            lowDigitDifference = wrap(((uint64_t) b << 1) - (uint64_t) tens, bits);",
+        "        } else {",
+        "            big b, s, m, tens, sum;",
+        "            big_set(&b, fractBits, B5, B2);",
+        "            big_set(&s, 1, S5, S2);",
+        "            big_set(&m, 1, M5 + 1, M2 + 1);",
+        "            big_set(&tens, 1, S5 + 1, S2 + 1);",
+        "",
+        "            q = big_digit(&b, &s);",
+        "            big_add(&sum, &b, &m);",
+        "            low = big_cmp(&b, &m) < 0;",
+        "            high = big_cmp(&tens, &sum) <= 0;",
+        "            if (q == 0 && !high) decExp--;",
+        "            else digits[n++] = (char) ('0' + q);",
+        "            if (decExp < -3 || decExp >= 8) high = low = 0;",
+        "",
+        "            while (!low && !high) {",
+        "                q = big_digit(&b, &s);",
+        "                big_mul(&m, 10);",
+        "                big_add(&sum, &b, &m);",
+        "                low = big_cmp(&b, &m) < 0;",
+        "                high = big_cmp(&tens, &sum) <= 0;",
+        "                digits[n++] = (char) ('0' + q);",
+        "            }",
+        "            if (high && low) {",
+        "                big_mul(&b, 2);",
+        "                lowDigitDifference = big_cmp(&b, &tens);",
+        "            }",
+        "        }",
+        "",
+        "        decExponent = decExp + 1;",
+        "        if (high && (!low || lowDigitDifference > 0 || (lowDigitDifference == 0 && (digits[n - 1] & 1)))) {",
+        "            /* round the last digit up */",
+        "            for (i = n - 1; i > 0 && digits[i] == '9'; i--) digits[i] = '0';",
+        "            if (digits[i] == '9') {",
+        "                decExponent++;",
+        "                digits[0] = '1';",
+        "            } else {",
+        "                digits[i]++;",
+        "            }",
+        "        }",
+        "    }",
+        "",
+        "    if (decExponent > 0 && decExponent < 8) {",
+        "        int whole = n < decExponent ? n : decExponent;",
+        "        fwrite(digits, 1, whole, stdout);",
+        "        for (i = whole; i < decExponent; i++) putchar('0');",
+        "        putchar('.');",
+        "        if (whole < n) fwrite(digits + whole, 1, n - whole, stdout);",
+        "        else putchar('0');",
+        "    } else if (decExponent <= 0 && decExponent > -3) {",
+        "        fputs(\"0.\", stdout);",
+        "        for (i = decExponent; i < 0; i++) putchar('0');",
+        "        fwrite(digits, 1, n, stdout);",
+        "    } else {",
+        "        putchar(digits[0]);",
+        "        putchar('.');",
+        "        if (n > 1) fwrite(digits + 1, 1, n - 1, stdout);",
+        "        else putchar('0');",
+        "        printf(\"E%d\", decExponent - 1);",
+        "    }",
+        "}",
+        "",
+        "/* a value that may be undef, printed as its Value would be */",
+        "static void print_value(int64_t v, int type) {",
+        "    if (v == UNDEF || type == " + Bytecode.P_VOID + ") fputs(\"undef\", stdout);",
+        "    else if (type == " + Bytecode.P_FLOAT + ") print_float(defined_float(v, \"\"));",
+        "    else if (type == " + Bytecode.P_CHAR + ") print_char((int32_t) v);",
+        "    else if (type == " + Bytecode.P_BOOL + ") print_bool((int32_t) v);",
+        "    else print_int((int32_t) v);",
+        "}",
+        "");
+}
@@ -0,0 +1,292 @@
+import java.io.*;
+import java.util.*;
+
+public class ClassFile {
+    // Just enough of a JVM class file writer for JitCompiler : a constant
+    // pool, static fields and static methods with a Code attribute. Classes
+    // are written as version 49, which the JVM verifies by type inference,
+    // so no StackMapTable has to be computed.
+
+    static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    // opcodes used by JitCompiler
+    static final int ACONST_NULL = 1, ICONST_0 = 3, LCONST_0 = 9, FCONST_0 = 11, BIPUSH = 16,
+            SIPUSH = 17, LDC_W = 19, LDC2_W = 20, ILOAD = 21, LLOAD = 22, FLOAD = 23, ALOAD = 25,
+            ISTORE = 54, LSTORE = 55, FSTORE = 56, ASTORE = 58, POP = 87, POP2 = 88, DUP = 89,
+            DUP_X2 = 91, SWAP = 95,
+            IADD = 96, FADD = 98, ISUB = 100, FSUB = 102, IMUL = 104, FMUL = 106, IDIV = 108,
+            FDIV = 110, IREM = 112, FREM = 114, INEG = 116, FNEG = 118, IAND = 126, IOR = 128,
+            IXOR = 130, I2L = 133, I2F = 134, L2I = 136, F2I = 139, I2C = 146, LCMP = 148,
+            FCMPL = 149, FCMPG = 150, IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156, IFGT = 157,
+            IFLE = 158, IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162,
+            IF_ICMPGT = 163, IF_ICMPLE = 164, GOTO = 167, IRETURN = 172, LRETURN = 173,
+            FRETURN = 174, ARETURN = 176, RETURN = 177, GETSTATIC = 178, PUTSTATIC = 179,
+            INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184, NEW = 187, ATHROW = 191;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream cp = new DataOutputStream(pool);
+    private final HashMap<String, Integer> entries = new HashMap<>();
+    private int count = 1;
+
+    private final ArrayList<byte[]> fields = new ArrayList<>();
+    private final ArrayList<byte[]> methods = new ArrayList<>();
+
+    private final int thisClass, superClass;
+
+    ClassFile(String name, String superName) {
+        thisClass = cls(name);
+        superClass = cls(superName);
+    }
+
+    // constant pool entries, shared when equal
+
+    int utf8(String s) {
+        return entry("U" + s, 1, 1, out -> out.writeUTF(s));
+    }
+
+    int cls(String name) {
+        int n = utf8(name);
+        return entry("C" + name, 7, 1, out -> out.writeShort(n));
+    }
+
+    int string(String s) {
+        int n = utf8(s);
+        return entry("S" + s, 8, 1, out -> out.writeShort(n));
+    }
+
+    int integer(int v) {
+        return entry("I" + v, 3, 1, out -> out.writeInt(v));
+    }
+
+    int floating(float v) {
+        return entry("F" + Float.floatToRawIntBits(v), 4, 1, out -> out.writeFloat(v));
+    }
+
+    int longer(long v) {
+        return entry("J" + v, 5, 2, out -> out.writeLong(v));
+    }
+
+    int field(String owner, String name, String desc) {
+        return member(9, owner, name, desc);
+    }
+
+    int method(String owner, String name, String desc) {
+        return member(10, owner, name, desc);
+    }
+
+    private int member(int tag, String owner, String name, String desc) {
+        int c = cls(owner);
+        int n = utf8(name);
+        int d = utf8(desc);
+        int nt = entry("N" + name + " " + desc, 12, 1, out -> { out.writeShort(n); out.writeShort(d); });
+        return entry(tag + owner + "." + name + " " + desc, tag, 1, out -> { out.writeShort(c); out.writeShort(nt); });
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int tag, int slots, Body body) {
+        Integer i = entries.get(key);
+        if (i != null) return i;
+
+        try {
+            cp.writeByte(tag);
+            body.write(cp);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        entries.put(key, count);
+        count += slots;
+
+        if (count > 0xffff) throw new UnsupportedOperationException("constant pool too large");
+        return count - slots;
+    }
+
+    void addField(int access, String name, String desc) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(desc));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        fields.add(b.toByteArray());
+    }
+
+    void addMethod(int access, String name, String desc, Code code) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        byte[] bytes = code.bytes();
+
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(desc));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + bytes.length + 8 * code.handlers.size());
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(code.handlers.size());
+            for (Handler h : code.handlers) {
+                out.writeShort(h.start.offset);
+                out.writeShort(h.end.offset);
+                out.writeShort(h.handler.offset);
+                out.writeShort(cls(h.type));
+            }
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        methods.add(b.toByteArray());
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(count);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(fields.size());
+            for (byte[] f : fields) out.write(f);
+            out.writeShort(methods.size());
+            for (byte[] m : methods) out.write(m);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return b.toByteArray();
+    }
+
+    static class Label {
+        private int offset = -1;
+        private int depth = -1;     // stack depth on arrival
+        private final ArrayList<Integer> uses = new ArrayList<>();
+    }
+
+    private static class Handler {
+        Label start, end, handler;
+        String type;
+    }
+
+    // Bytecode of one method. Every instruction is given its effect on the
+    // operand stack, in slots, so that max_stack comes out of emission.
+    static class Code {
+        private final ByteArrayOutputStream b = new ByteArrayOutputStream();
+        private final ArrayList<Label> labels = new ArrayList<>();
+        private final ArrayList<Handler> handlers = new ArrayList<>();
+        private int depth = 0;
+        private boolean reachable = true;
+        int maxStack = 0;
+        int maxLocals = 0;
+
+        void op(int opcode, int effect) {
+            b.write(opcode);
+            stack(effect);
+        }
+
+        void op1(int opcode, int operand, int effect) {
+            b.write(opcode);
+            b.write(operand);
+            stack(effect);
+        }
+
+        void op2(int opcode, int operand, int effect) {
+            b.write(opcode);
+            b.write(operand >> 8);
+            b.write(operand);
+            stack(effect);
+        }
+
+        void local(int opcode, int slot, int width, int effect) {
+            if (slot > 255) throw new UnsupportedOperationException("too many locals");
+            op1(opcode, slot, effect);
+            if (slot + width > maxLocals) maxLocals = slot + width;
+        }
+
+        void locals(int n) {
+            if (n > maxLocals) maxLocals = n;
+        }
+
+        // After a goto or a return the next instruction has to be a label,
+        // which takes its stack depth from the jumps to it.
+        void jump(int opcode, Label l, int effect) {
+            l.uses.add(b.size());
+            b.write(opcode);
+            b.write(0);
+            b.write(0);
+            stack(effect);
+            l.depth = depth;
+            if (!labels.contains(l)) labels.add(l);
+            if (opcode == GOTO) reachable = false;
+        }
+
+        // exceptions of class type thrown from start up to end go to
+        // handler, with the exception as the only stack entry
+        void handler(Label start, Label end, Label handler, String type) {
+            Handler h = new Handler();
+            h.start = start;
+            h.end = end;
+            h.handler = handler;
+            h.type = type;
+            handler.depth = 1;
+            handlers.add(h);
+        }
+
+        void exit(int opcode) {
+            b.write(opcode);
+            reachable = false;
+        }
+
+        void place(Label l) {
+            l.offset = b.size();
+            if (!reachable) {
+                depth = l.depth < 0 ? 0 : l.depth;
+                reachable = true;
+            }
+        }
+
+        private void stack(int effect) {
+            depth += effect;
+            if (depth > maxStack) maxStack = depth;
+        }
+
+        boolean reachable() {
+            return reachable;
+        }
+
+        byte[] bytes() {
+            byte[] code = b.toByteArray();
+
+            for (Label l : labels) {
+                for (int at : l.uses) {
+                    int d = l.offset - at;
+                    if (d != (short) d) throw new UnsupportedOperationException("branch out of range");
+                    code[at + 1] = (byte) (d >> 8);
+                    code[at + 2] = (byte) d;
+                }
+            }
+
+            return code;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.*;
+
+public class Compiler {
+    // Compiles the typed AST produced by Program.VT, after Program.resolve
+    // has bound variables to slots and calls to functions, into Bytecode.
+    // Slot numbers are taken over unchanged : a VM frame has the same
+    // layout as the tree walker's Value[] frame.
+
+    private int[] code = new int[256];
+    private int pc = 0;
+
+    private ArrayList<Long> constants = new ArrayList<>();
+    private HashMap<Long, Integer> constantIndex = new HashMap<>();
+    private ArrayList<String> strings = new ArrayList<>();
+
+    private IdentityHashMap<Function, Integer> index = new IdentityHashMap<>();
+
+    private TypeMap tm;     // types visible in the function being compiled
+    private int depth;      // current operand stack depth
+    private int maxDepth;
+
+    public static Bytecode compile(Program prog) {
+        return new Compiler().program(prog);
+    }
+
+    private Bytecode program(Program prog) {
+        Functions fs = prog.functions;
+        int n = fs.size();
+        String[] names = new String[n];
+        int[] entry = new int[n];
+        int[] params = new int[n];
+        int[] frame = new int[n];
+        int[] stack = new int[n];
+        int main = -1;
+
+        for (int i = 0; i < n; i++) {
+            index.put(fs.get(i), i);
+        }
+
+        TypeMap gm = TypeChecker.typing(prog.globals);
+
+        for (int i = 0; i < n; i++) {
+            Function f = fs.get(i);
+
+            tm = new TypeMap();
+            tm.putAll(gm);
+            tm.putAll(TypeChecker.typing(f.params));
+            tm.putAll(TypeChecker.typing(f.locals));
+            depth = 0;
+            maxDepth = 0;
+
+            names[i] = f.name.toString();
+            entry[i] = pc;
+            params[i] = f.params.size();
+            frame[i] = f.params.size() + f.locals.size();
+
+            statement(f.body);
+            emit(Bytecode.RETDEF);
+
+            stack[i] = maxDepth;
+
+            if (f.name.equals(new Variable("main"))) {
+                main = i;
+            }
+        }
+
+        long[] cs = new long[constants.size()];
+        for (int i = 0; i < cs.length; i++) {
+            cs[i] = constants.get(i);
+        }
+
+        return new Bytecode(Arrays.copyOf(code, pc), cs, strings.toArray(new String[0]),
+                names, entry, params, frame, stack, prog.globals, main);
+    }
+
+    private void statement(Statement s) {
+        if (s instanceof Skip) {
+            return;
+        }
+        else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) {
+                statement(m);
+            }
+        }
+        else if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            expression(a.source);
+            store(a.target);
+        }
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            expression(c.test);
+            int jumpElse = jumpIfFalse(c.test);
+            statement(c.thenbranch);
+
+            if (c.elsebranch != null) {
+                emit(Bytecode.JUMP, 0);
+                int jumpEnd = pc - 1;
+                code[jumpElse] = pc;
+                statement(c.elsebranch);
+                code[jumpEnd] = pc;
+            }
+            else {
+                code[jumpElse] = pc;
+            }
+        }
+        else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            int top = pc;
+            expression(l.test);
+            int jumpEnd = jumpIfFalse(l.test);
+            statement(l.body);
+            emit(Bytecode.JUMP, top);
+            code[jumpEnd] = pc;
+        }
+        else if (s instanceof Print) {
+            Print p = (Print) s;
+            expression(p.expression);
+            emit(Bytecode.PRINT, printType(typeOf(p.expression)));
+            pop(1);
+        }
+        else if (s instanceof StatementCall) {
+            StatementCall c = (StatementCall) s;
+            call(c.function, c.params);
+            emit(Bytecode.POP);
+            pop(1);
+        }
+        else if (s instanceof Return) {
+            expression(((Return) s).result);
+            emit(Bytecode.RET);
+            pop(1);
+        }
+        else {
+            throw new IllegalArgumentException("compile error : " + s);
+        }
+    }
+
+    private void expression(Expression e) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            emit(v.isGlobal() ? Bytecode.GLOAD : Bytecode.LOAD, v.slot());
+            push(1);
+        }
+        else if (e instanceof Value) {
+            emit(Bytecode.CONST, constant(encode((Value) e)));
+            push(1);
+        }
+        else if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            int op = Bytecode.of(b.op.code);
+
+            if (op < 0) { // typed, but not evaluable : fails when reached
+                emit(Bytecode.FAIL, string("apply binary error : " + b.op));
+                push(1);
+                return;
+            }
+
+            expression(b.term1);
+            expression(b.term2);
+            emit(op);
+            pop(1);
+        }
+        else if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            expression(u.term);
+            emit(Bytecode.of(u.op.code));
+        }
+        else if (e instanceof ExpressionCall) {
+            ExpressionCall c = (ExpressionCall) e;
+            call(c.function, c.params);
+        }
+        else {
+            throw new IllegalArgumentException("compile error : " + e);
+        }
+    }
+
+    private void call(Function f, ArrayList<Expression> args) {
+        for (Expression a : args) {
+            expression(a);
+        }
+        emit(Bytecode.CALL, index.get(f));
+        pop(args.size());
+        push(1);
+    }
+
+    private void store(Variable v) {
+        emit(v.isGlobal() ? Bytecode.GSTORE : Bytecode.STORE, v.slot());
+        pop(1);
+    }
+
+    // emits JUMPF with an open target, returns the operand to patch
+    private int jumpIfFalse(Expression test) {
+        emit(Bytecode.JUMPF, 0, string("undef value error : " + test));
+        pop(1);
+        return pc - 2;
+    }
+
+    private Type typeOf(Expression e) {
+        if (e instanceof Variable) return tm.get(e);
+        if (e instanceof Value) return ((Value) e).type();
+        if (e instanceof Binary) return ((Binary) e).op.code.type;
+        if (e instanceof Unary) return ((Unary) e).op.code.type;
+        if (e instanceof ExpressionCall) return ((ExpressionCall) e).function.type;
+        throw new IllegalArgumentException("compile error : " + e);
+    }
+
+    private static int printType(Type t) {
+        if (t == Type.INT) return Bytecode.P_INT;
+        if (t == Type.FLOAT) return Bytecode.P_FLOAT;
+        if (t == Type.CHAR) return Bytecode.P_CHAR;
+        if (t == Type.BOOL) return Bytecode.P_BOOL;
+        return Bytecode.P_VOID;
+    }
+
+    static long encode(Value v) {
+        if (v.isUndef()) return Bytecode.UNDEF;
+        if (v.type() == Type.INT) return v.intValue();
+        if (v.type() == Type.FLOAT) return Float.floatToRawIntBits(v.floatValue());
+        if (v.type() == Type.CHAR) return v.charValue();
+        if (v.type() == Type.BOOL) return v.boolValue() ? 1 : 0;
+        return Bytecode.UNDEF;
+    }
+
+    private int constant(long c) {
+        Integer k = constantIndex.get(c);
+
+        if (k == null) {
+            k = constants.size();
+            constants.add(c);
+            constantIndex.put(c, k);
+        }
+
+        return k;
+    }
+
+    private int string(String s) {
+        strings.add(s);
+        return strings.size() - 1;
+    }
+
+    private void push(int n) {
+        depth += n;
+        if (depth > maxDepth) maxDepth = depth;
+    }
+
+    private void pop(int n) {
+        depth -= n;
+    }
+
+    private void emit(int... words) {
+        if (pc + words.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, pc + words.length));
+        }
+        for (int w : words) {
+            code[pc++] = w;
+        }
+    }
+}
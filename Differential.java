@@ -0,0 +1,126 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class Differential {
+    // Differential check of the C backend against the tree walker :
+    //     java Differential [file.cl ...]
+    // Each program, code/*.cl by default, is run by Program.M and built
+    // and run by Native; their output, error message and exit status have
+    // to agree. Exits 1 if any program differs, 2 if there is no C compiler.
+
+    public static void main(String[] args) throws Exception {
+        if (Native.compiler() == null) {
+            System.err.println("no C compiler : set CC or put cc on the PATH");
+            System.exit(2);
+        }
+
+        List<String> files = new ArrayList<>(Arrays.asList(args));
+        if (files.isEmpty()) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(Paths.get("code"), "*.cl")) {
+                for (Path p : ds) files.add(p.toString());
+            }
+            Collections.sort(files);
+        }
+
+        int failed = 0;
+        for (String file : files) {
+            String diff = compare(file);
+            System.out.println((diff == null ? "ok   " : "DIFF ") + file);
+            if (diff != null) {
+                System.out.println(diff);
+                failed++;
+            }
+        }
+
+        System.out.println("[ " + (files.size() - failed) + " of " + files.size() + " agree ]");
+        if (failed > 0) System.exit(1);
+    }
+
+    // null when both agree, else what differs
+    static String compare(String file) throws Exception {
+        Program prog;
+        PrintStream stdout = System.out;
+
+        try {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            prog = new Parser(new Lexer(file)).program();
+            TypeMap gm = TypeChecker.typing(prog.globals);
+            prog = prog.VT(gm, null);
+            prog.resolve();
+        } catch (Exception e) {
+            return "  not a valid program : " + e.getMessage();
+        } finally {
+            System.setOut(stdout);
+        }
+
+        String[] expected = interpret(prog);
+        String[] actual = execute(prog);
+
+        for (int i = 0; i < expected.length; i++) {
+            if (!expected[i].equals(actual[i])) {
+                String what = i == 0 ? "output" : i == 1 ? "error" : "exit status";
+                return "  " + what + " differs at char " + mismatch(expected[i], actual[i])
+                        + "\n  M      : " + excerpt(expected[i], actual[i])
+                        + "\n  native : " + excerpt(actual[i], expected[i]);
+            }
+        }
+        return null;
+    }
+
+    // { output, error, exit status } of prog run by Program.M, with the
+    // final globals printed as Semantics prints them
+    private static String[] interpret(Program prog) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        String error = "";
+        int status = 0;
+
+        try {
+            System.setOut(new PrintStream(out, true, "UTF-8"));
+            State res = prog.M();
+            System.out.println("\n\n[ Final Globals ]");
+            res.display();
+        } catch (Exception e) {
+            error = e.getMessage() + "\n";
+            status = 1;
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+
+        return new String[] { text(out.toByteArray()), error, Integer.toString(status) };
+    }
+
+    // the same, for prog built by Native; "[ Final Globals ]" is
+    // printed by the executable itself
+    private static String[] execute(Program prog) throws Exception {
+        String exe = Native.build(prog);
+        File err = File.createTempFile("clite", ".err");
+        err.deleteOnExit();
+
+        Process p = new ProcessBuilder(exe).redirectError(err).start();
+        byte[] out = p.getInputStream().readAllBytes();
+        int status = p.waitFor();
+        new File(exe).delete();
+
+        return new String[] { text(out), text(Files.readAllBytes(err.toPath())), Integer.toString(status) };
+    }
+
+    private static String text(byte[] b) {
+        return new String(b, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private static int mismatch(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    // a few chars of a around where it first differs from b
+    private static String excerpt(String a, String b) {
+        int i = mismatch(a, b);
+        String s = a.substring(Math.max(0, i - 20), Math.min(a.length(), i + 20));
+        return s.replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+public class EngineCheck {
+    // Differential check of the other engines against the tree walker :
+    //     java EngineCheck [file.cl ...]
+    // Each program, code/*.cl and the cases below by default, is checked
+    // and run in process by Semantics.run with the ast engine and with
+    // each of ENGINES; what they print and the error they end with have
+    // to agree. Exits 1 if any program differs.
+
+    static final String[] ENGINES = { "vm", "reg" };
+
+    // An undefined operand beside one with a side effect : the right
+    // operand is evaluated before an undefined left one is reported, as
+    // the tree walker evaluates both first. Each is main's one statement.
+    static final String[] CASES = {
+        "y = x + f();", "y = x - f();", "y = x * f();", "y = x / f();", "y = x % f();",
+        "y = u + f();", "y = f() + x;", "y = (x + f()) * f();", "y = f() - (x * f());",
+        "fy = fx + g();", "fy = fx / g();", "fy = g() * fx;",
+        "if (x < f()) { i = 1; }", "if (fx == g()) { i = 1; }", "while (u >= f()) { i = i + 1; }",
+        "by = bx && h();", "by = bx || h();", "by = x != f();",
+        // the register VM's superinstructions : fused compare and branch,
+        // remainder tests and increments
+        "while (u < f()) { i = i + 1; }", "if (x > f()) { i = 1; }",
+        "if (x % f() == 0) { i = 1; }", "if (u % f() != 0) { i = 1; }", "u = u + 1;", "u = u - f();",
+    };
+
+    public static void main(String[] args) throws Exception {
+        List<String> files = new ArrayList<>(Arrays.asList(args));
+        boolean cases = files.isEmpty();
+        if (cases) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(Paths.get("code"), "*.cl")) {
+                for (Path p : ds) files.add(p.toString());
+            }
+            Collections.sort(files);
+        }
+
+        // by name, the text of each program
+        Map<String, String> programs = new LinkedHashMap<>();
+        for (String file : files)
+            programs.put(file, new String(Files.readAllBytes(Paths.get(file)), Charset.defaultCharset()));
+        if (cases)
+            for (String c : CASES) programs.put(c, program(c));
+
+        int failed = 0, checks = 0;
+        for (Map.Entry<String, String> p : programs.entrySet()) {
+            String name = p.getKey();
+            String expected = run(p.getValue(), "ast");
+            for (String engine : ENGINES) {
+                String actual = run(p.getValue(), engine);
+                checks++;
+                if (expected.equals(actual)) {
+                    System.out.println("ok   " + engine + " " + name);
+                    continue;
+                }
+                System.out.println("DIFF " + engine + " " + name);
+                System.out.println("  ast : " + meaning(expected));
+                System.out.println("  " + engine + " : " + meaning(actual));
+                failed++;
+            }
+        }
+
+        System.out.println("[ " + (checks - failed) + " of " + checks + " agree ]");
+        if (failed > 0) System.exit(1);
+    }
+
+    // what source prints, checked and run by engine, and the error it
+    // ends with, if any
+    private static String run(String source, String engine) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        String error = "";
+
+        try {
+            System.setOut(new PrintStream(out, true, "UTF-8"));
+            Program prog = Semantics.check(Semantics.parse(source), null);
+            Semantics.run(prog, engine, null, false);
+        } catch (Exception e) {
+            error = e.getMessage();
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+
+        return new String(out.toByteArray(), java.nio.charset.StandardCharsets.UTF_8) + "\n" + error;
+    }
+
+    // what a run printed from its meaning on, on one line
+    private static String meaning(String printed) {
+        int i = printed.lastIndexOf("[ Program Meaning ]");
+        return printed.substring(Math.max(i, 0)).replace("\n", "\\n");
+    }
+
+    // a program whose main runs statement; x, fx, bx and u are never
+    // assigned, and f, g and h print as they are called
+    private static String program(String statement) {
+        return "int x, y;\n"
+                + "float fx, fy;\n"
+                + "bool bx, by;\n"
+                + "int f() { print 'f'; return 1; }\n"
+                + "float g() { print 'g'; return 1.5; }\n"
+                + "bool h() { print 'h'; return true; }\n"
+                + "int main() {\n"
+                + "    int i, u;\n"
+                + "    i = 0;\n"
+                + "    print 's';\n"
+                + "    " + statement + "\n"
+                + "    return 0;\n"
+                + "}\n";
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.*;
+
+public class FrontEnd {
+    // An incremental front end, for --watch and editors. The source is
+    // cut into top-level items as ParallelParser cuts it, and each item
+    // is keyed by its text : an item whose text was in the last run keeps
+    // the globals and Function nodes parsed then, and only new or edited
+    // items are lexed and parsed again. While the globals and function
+    // signatures stay the same, a kept Function is not type checked
+    // again and its transformed body is kept too; resolve always runs,
+    // since slots move as items come and go. A source that does not
+    // parse is parsed again whole, so its message is what Parser gives.
+    // Names of items gone stay in Symbols : once it holds more than twice
+    // the names the last fresh run left there, a run starts a new Symbols
+    // scope, and in a new scope everything is parsed and checked again.
+
+    private String text = "";
+    private Map<String, Program> items = new HashMap<>();
+
+    // carried from the last valid run, for the same signatures only
+    private String signatures;
+    private Map<Function, Block> done = new IdentityHashMap<>();
+
+    // the Symbols table the kept items are numbered in, and its size
+    // after the first run in it; SLACK more names are let grow anyway
+    private Symbols scope;
+    private int live;
+    private static final int SLACK = 1024;
+
+    // what the last run did again, for stats()
+    private int parsed, count, checks, functions;
+
+    // the program of text after length chars at offset are replaced by
+    // replacement
+    public Program edit(int offset, int length, String replacement) {
+        return update(text.substring(0, offset) + replacement + text.substring(offset + length));
+    }
+
+    // The program of source, type checked, transformed and resolved, with
+    // what Semantics.check prints. Throws as the front end would fail,
+    // ParseError with the message for a syntax error.
+    public Program update(String source) {
+        // counted as the run goes, so that stats() is right if it fails
+        functions = checks = 0;
+
+        // a new scope, started here or by another FrontEnd, leaves
+        // nothing kept
+        if (Symbols.current().size() > 2 * live + SLACK)
+            Symbols.scope();
+        boolean fresh = scope != Symbols.current();
+        if (fresh) {
+            scope = Symbols.current();
+            items = new HashMap<>();
+            done.clear();
+        }
+        // the last line ended as Lexer(String) ends it, for a // comment
+        Program prog = parse(Lexer.lines(source.toCharArray(), source.length()));
+        if (fresh) live = scope.size();
+
+        String s = signatures(prog);
+        if (!s.equals(signatures))
+            done.clear();
+
+        Map<Function, Block> bodies = new IdentityHashMap<>();
+        for (Function f : prog.functions) {
+            Block b = done.get(f);
+            if (b != null) bodies.put(f, b);
+        }
+        functions = prog.functions.size();
+        checks = functions - bodies.size();
+
+        // done stays as it was unless the whole run is valid
+        prog = Semantics.check(prog, bodies);
+
+        text = source;
+        signatures = s;
+        done = bodies;
+        return prog;
+    }
+
+    // "k of n items parsed again, j of m functions checked again"
+    public String stats() {
+        return parsed + " of " + count + " items parsed again, "
+                + checks + " of " + functions + " functions checked again";
+    }
+
+    private Program parse(char[] chars) {
+        String source = new String(chars);
+        int[] ends = ParallelParser.ends(chars, chars.length);
+
+        Map<String, Program> next = new HashMap<>();
+        Declarations globals = new Declarations();
+        Functions fs = new Functions();
+        parsed = 0;
+        count = 0;
+
+        int from = 0;
+        for (int j = 0; ends != null && j <= ends.length; j++) {
+            int to = j < ends.length ? ends[j] : chars.length;
+            String item = source.substring(from, to);
+            Program p = items.get(item);
+
+            // an item seen twice in this run is parsed again, so that no
+            // node is in the program twice
+            if (p == null || next.containsKey(item)) {
+                p = ParallelParser.part(chars, from, to);
+                parsed++;
+            }
+            // globals come before functions, as Parser.program takes them
+            if (p == null || !p.globals.isEmpty() && !fs.isEmpty())
+                return whole(chars);
+
+            next.put(item, p);
+            globals.addAll(p.globals);
+            fs.addAll(p.functions);
+            count++;
+            from = to;
+        }
+        if (ends == null) return whole(chars);
+
+        items = next;
+        return new Program(globals, fs);
+    }
+
+    // source parsed by one Parser, throwing ParseError where it would fail
+    private Program whole(char[] source) {
+        parsed = count = 1;
+        Parser parser = new Parser(new Lexer(source, 0, source.length));
+        parser.part = true;
+        Program p = parser.program();
+
+        items = new HashMap<>();
+        return p;
+    }
+
+    // the globals and function signatures, which a function's checking
+    // and transforming depend on besides its own text
+    private static String signatures(Program prog) {
+        StringBuilder b = new StringBuilder();
+        for (Declaration d : prog.globals)
+            b.append(d.t).append(' ').append(d.v).append(';');
+        for (Function f : prog.functions) {
+            b.append(f.type).append(' ').append(f.name).append('(');
+            for (Declaration d : f.params)
+                b.append(d.t).append(' ').append(d.v).append(',');
+            b.append(')');
+        }
+        return b.toString();
+    }
+}
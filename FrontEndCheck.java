@@ -0,0 +1,98 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+public class FrontEndCheck {
+    // Check of FrontEnd against the front end that parses whole :
+    //     java FrontEndCheck [file.cl ...]
+    // Each program, code/*.cl and the cases below by default, is given
+    // to one FrontEnd, again unchanged, and then after each of EDITS
+    // small edits at random (seeded) places. Each time, what update
+    // prints and what the program then does, or the error it stops with,
+    // has to be what Semantics.check and Program.M give for the source
+    // parsed whole. Exits 1 if any differs.
+
+    static final int EDITS = 20;
+
+    // sources whose last line does not end in a newline
+    static final String[] CASES = {
+        "int main() {\n    print 1;\n    return 0;\n}\n// the end",
+        "int g;\nint main() {\n    g = 2;\n    return 0;\n}",
+        "int main() {\n    return 0;\n}\r\n//",
+    };
+
+    public static void main(String[] args) throws IOException {
+        List<String> files = new ArrayList<>(Arrays.asList(args));
+        boolean cases = files.isEmpty();
+        if (cases) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(Paths.get("code"), "*.cl")) {
+                for (Path p : ds) files.add(p.toString());
+            }
+            Collections.sort(files);
+        }
+
+        Map<String, String> programs = new LinkedHashMap<>();
+        for (String file : files)
+            programs.put(file, new String(Files.readAllBytes(Paths.get(file)), Charset.defaultCharset()));
+        if (cases)
+            for (int i = 0; i < CASES.length; i++) programs.put("case " + (i + 1), CASES[i]);
+
+        Random random = new Random(1);
+        int failed = 0, checks = 0;
+        for (Map.Entry<String, String> p : programs.entrySet()) {
+            String source = p.getValue();
+            FrontEnd front = new FrontEnd();
+
+            for (int k = -2; k < EDITS && !source.isEmpty(); k++) {
+                if (k >= 0) source = edit(source, random, k);
+                checks++;
+                if (!whole(source).equals(incremental(front, source))) {
+                    System.out.println("DIFF " + p.getKey() + (k < 0 ? " unchanged" : " after edit " + (k + 1)));
+                    failed++;
+                }
+            }
+            System.out.println("done " + p.getKey());
+        }
+
+        System.out.println("[ " + (checks - failed) + " of " + checks + " agree ]");
+        if (failed > 0) System.exit(1);
+    }
+
+    // a digit stepped, a char doubled or a char dropped, at random
+    private static String edit(String source, Random random, int k) {
+        int at = random.nextInt(source.length());
+        char c = source.charAt(at);
+        String by = Character.isDigit(c) ? String.valueOf((char) ('0' + (c - '0' + 1) % 10))
+                  : k % 2 == 0 ? c + "" + c : "";
+        return source.substring(0, at) + by + source.substring(at + 1);
+    }
+
+    private static String whole(String source) {
+        return printed(() -> Semantics.check(Semantics.parse(source), null));
+    }
+
+    private static String incremental(FrontEnd front, String source) {
+        return printed(() -> front.update(source));
+    }
+
+    private interface Build {
+        Program program();
+    }
+
+    // what building and running a program prints, with its final globals,
+    // or the error it stops with
+    private static String printed(Build build) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        try {
+            System.setOut(new PrintStream(out, true));
+            build.program().M().display();
+        } catch (Exception e) {
+            System.out.println("error : " + e.getMessage());
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,107 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+public class Jit {
+    // Runs a Program through JitCompiler. The generated class is defined
+    // as a hidden class in this package, so its code calls the helpers
+    // below directly and HotSpot compiles it like any other Java code.
+    // A program the compiler cannot handle is run by the tree walker.
+
+    private static final StringBuilder out = new StringBuilder();
+
+    public static State run(Program prog) {
+        byte[] bytes;
+
+        try {
+            bytes = JitCompiler.compile(prog);
+        } catch (UnsupportedOperationException e) {
+            return prog.M();
+        }
+
+        MethodHandles.Lookup program;
+
+        try {
+            program = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            program.findStatic(program.lookupClass(), JitCompiler.ENTRY, MethodType.methodType(void.class)).invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        } finally {
+            flush();
+        }
+
+        Declarations ds = prog.globals;
+        Value[] frame = new Value[ds.size()];
+
+        try {
+            for (int i = 0; i < frame.length; i++) {
+                long v = (long) program.findStaticGetter(program.lookupClass(), ds.get(i).v.toString(), long.class).invokeExact();
+                frame[i] = VM.decode(ds.get(i).t, v);
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        return Semantics.finalState(ds, frame);
+    }
+
+    // called from generated code
+
+    static int defined(long v, String message) {
+        if (v == Bytecode.UNDEF)
+            throw new IllegalArgumentException(message);
+        return (int) v;
+    }
+
+    static float definedFloat(long v, String message) {
+        if (v == Bytecode.UNDEF)
+            throw new IllegalArgumentException(message);
+        return Float.intBitsToFloat((int) v);
+    }
+
+    static int fail(String message) {
+        throw new IllegalArgumentException(message);
+    }
+
+    static void print(int v) {
+        out.append(v);
+        if (out.length() >= 8192) flush();
+    }
+
+    static void print(float v) {
+        out.append(v);
+        if (out.length() >= 8192) flush();
+    }
+
+    static void printChar(int v) {
+        out.append((char) v);
+        if (out.length() >= 8192) flush();
+    }
+
+    static void printBool(int v) {
+        out.append(v != 0);
+        if (out.length() >= 8192) flush();
+    }
+
+    // a value that may be undef, printed as its Value would be
+    static void print(long v, int type) {
+        if (v == Bytecode.UNDEF || type == Bytecode.P_VOID)
+            out.append("undef");
+        else if (type == Bytecode.P_FLOAT)
+            out.append(Float.intBitsToFloat((int) v));
+        else if (type == Bytecode.P_CHAR)
+            out.append((char) v);
+        else if (type == Bytecode.P_BOOL)
+            out.append(v != 0);
+        else
+            out.append((int) v);
+
+        if (out.length() >= 8192) flush();
+    }
+
+    static void flush() {
+        System.out.print(out);
+        out.setLength(0);
+    }
+}
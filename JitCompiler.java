@@ -0,0 +1,1101 @@
+import java.util.*;
+
+public class JitCompiler {
+    // Compiles a typed, resolved Program into one JVM class : a static
+    // method per Function and a static long field per global, run by Jit.
+    //
+    // Every value has one of four JVM kinds. Values that can be shown to
+    // be defined are plain int (int, char and bool) or float; anything
+    // else is a long holding the Bytecode encoding, with Bytecode.UNDEF
+    // for undefined, and is checked where an operator reads it, exactly
+    // where the tree walker would throw. Globals are always longs. A
+    // frame slot is typed when it is definitely assigned before every
+    // read and only ever assigned defined values; a parameter, when every
+    // call passes a defined argument; a result, when every path ends in
+    // a return of a defined value. Slots start out typed and are demoted
+    // until nothing changes.
+    //
+    // For Tier the unit is smaller : a hot function with everything it
+    // calls, entered through $enter, or one hot loop entered through $loop
+    // with the interpreter's frame, whose slots are typed according to
+    // their values on entry. Globals then stay in the interpreter's frame.
+
+    static final String NAME = "CLiteProgram";
+    static final String ENTRY = "$run";   // not a CLite identifier
+    private static final String TIER = "Tier";
+
+    private static final char I = 'I', F = 'F', J = 'J', V = 'V';
+
+    private static class Info {
+        Type[] types;       // per frame slot : params, then locals
+        char[] kinds;
+        int[] locals;       // JVM local of each frame slot
+        char result;
+        String desc;
+    }
+
+    private final Program prog;
+    private final List<Function> unit;
+    private final boolean tiered;
+    private String runtime = "Jit";     // owner of the print and check helpers
+    private final IdentityHashMap<Function, Info> info = new IdentityHashMap<>();
+    private final ClassFile cf = new ClassFile(NAME, "java/lang/Object");
+    private boolean changed;
+
+    // the loop entered by $loop
+    private Loop loop;
+    private Value[] frame;
+    private Info osr;
+
+    // function being compiled
+    private Info fi;
+    private TypeMap tm;
+    private ClassFile.Code code;
+    private boolean boxed;      // returns hand a Value back to the interpreter
+
+    byte[] bytes;               // the compiled class
+    char[] entry;               // kinds the entry expects in the frame
+
+    private JitCompiler(Program prog, List<Function> unit, boolean tiered) {
+        this.prog = prog;
+        this.unit = unit;
+        this.tiered = tiered;
+    }
+
+    // All of these throw UnsupportedOperationException for code they
+    // cannot compile.
+
+    // the whole program, run by $run
+    public static byte[] compile(Program prog) {
+        JitCompiler c = new JitCompiler(prog, prog.functions, false);
+        c.analyse();
+        return c.program();
+    }
+
+    // The whole program as a class with a main method, for Aot. It needs
+    // nothing but the JDK : the helpers are generated into it, and main
+    // prints what the interpreter prints after [ Program Meaning ].
+    static byte[] standalone(Program prog) {
+        JitCompiler c = new JitCompiler(prog, prog.functions, false);
+        c.runtime = NAME;
+        c.analyse();
+        return c.program();
+    }
+
+    // f and the functions it calls, for Tier
+    static JitCompiler function(Program prog, Function f) {
+        JitCompiler c = new JitCompiler(prog, calls(f), true);
+        c.analyse();
+        c.bytes = c.enter(f);
+        c.entry = Arrays.copyOf(c.info.get(f).kinds, f.params.size());
+        return c;
+    }
+
+    // loop l of f, entered with the current frame, for Tier
+    static JitCompiler loop(Program prog, Function f, Loop l, Value[] frame) {
+        List<Function> unit = new ArrayList<>();
+        callees(l, unit);
+
+        JitCompiler c = new JitCompiler(prog, unit, true);
+        c.loop = l;
+        c.frame = frame;
+        c.osr = c.info(f);
+        c.analyse();
+        c.bytes = c.osr(f);
+        c.entry = c.osr.kinds;
+        return c;
+    }
+
+    private static List<Function> calls(Function f) {
+        List<Function> unit = new ArrayList<>();
+        unit.add(f);
+        callees(f.body, unit);
+        return unit;
+    }
+
+    // adds the functions s calls, and the functions they call, to unit
+    private static void callees(Statement s, List<Function> unit) {
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) callees(m, unit);
+        }
+        else if (s instanceof Assignment) {
+            callees(((Assignment) s).source, unit);
+        }
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            callees(c.test, unit);
+            callees(c.thenbranch, unit);
+            if (c.elsebranch != null) callees(c.elsebranch, unit);
+        }
+        else if (s instanceof Loop) {
+            callees(((Loop) s).test, unit);
+            callees(((Loop) s).body, unit);
+        }
+        else if (s instanceof Print) {
+            callees(((Print) s).expression, unit);
+        }
+        else if (s instanceof StatementCall) {
+            call(((StatementCall) s).function, ((StatementCall) s).params, unit);
+        }
+        else if (s instanceof Return) {
+            callees(((Return) s).result, unit);
+        }
+    }
+
+    private static void callees(Expression e, List<Function> unit) {
+        if (e instanceof Binary) {
+            callees(((Binary) e).term1, unit);
+            callees(((Binary) e).term2, unit);
+        }
+        else if (e instanceof Unary) {
+            callees(((Unary) e).term, unit);
+        }
+        else if (e instanceof ExpressionCall) {
+            call(((ExpressionCall) e).function, ((ExpressionCall) e).params, unit);
+        }
+    }
+
+    private static void call(Function f, ArrayList<Expression> args, List<Function> unit) {
+        for (Expression a : args) callees(a, unit);
+
+        for (Function g : unit) {
+            if (g == f) return;
+        }
+        unit.add(f);
+        callees(f.body, unit);
+    }
+
+    private static char kind(Type t) {
+        if (t == Type.FLOAT) return F;
+        if (t == Type.VOID) return V;
+        return I;
+    }
+
+    private Info info(Function f) {
+        Info i = new Info();
+        int n = f.params.size() + f.locals.size();
+        i.types = new Type[n];
+        i.kinds = new char[n];
+        i.locals = new int[n];
+
+        for (int k = 0; k < f.params.size(); k++) {
+            i.types[k] = f.params.get(k).t;
+        }
+        for (int k = 0; k < f.locals.size(); k++) {
+            i.types[f.params.size() + k] = f.locals.get(k).t;
+        }
+        for (int k = 0; k < n; k++) {
+            i.kinds[k] = kind(i.types[k]);
+        }
+
+        i.result = kind(f.type);
+        return i;
+    }
+
+    private void analyse() {
+        for (Function f : unit) {
+            info.put(f, info(f));
+        }
+
+        if (osr != null) { // slots undef on entry are not typed
+            for (int k = 0; k < frame.length; k++) {
+                if (frame[k].isUndef()) osr.kinds[k] = J;
+            }
+            osr.result = J;
+        }
+
+        do {
+            changed = false;
+
+            if (osr != null) {
+                boolean[] da = new boolean[frame.length];
+                for (int k = 0; k < da.length; k++) {
+                    da[k] = !frame[k].isUndef();
+                }
+                scan(loop, osr, da);
+            }
+
+            for (Function f : unit) {
+                Info i = info.get(f);
+                boolean[] da = new boolean[i.kinds.length];
+                Arrays.fill(da, 0, f.params.size(), true);
+
+                scan(f.body, i, da);
+
+                if (i.result != V && i.result != J && completes(f.body)) {
+                    i.result = J;
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        for (Function f : unit) {
+            Info i = info.get(f);
+            StringBuilder desc = new StringBuilder("(");
+            layout(i, 0);
+
+            for (int k = 0; k < f.params.size(); k++) {
+                desc.append(i.kinds[k]);
+            }
+
+            i.desc = desc.append(")").append(i.result).toString();
+        }
+
+        if (osr != null) {
+            layout(osr, 1); // local 0 is the frame
+        }
+    }
+
+    private static void layout(Info i, int local) {
+        for (int k = 0; k < i.kinds.length; k++) {
+            i.locals[k] = local;
+            local += width(i.kinds[k]);
+        }
+    }
+
+    private void demote(Info i, int slot) {
+        if (i.kinds[slot] != J) {
+            i.kinds[slot] = J;
+            changed = true;
+        }
+    }
+
+    // Walks s given the definitely assigned slots da, demoting what s
+    // shows cannot stay typed. Returns the slots assigned after s.
+    private boolean[] scan(Statement s, Info i, boolean[] da) {
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) {
+                da = scan(m, i, da);
+            }
+        }
+        else if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            reads(a.source, i, da);
+
+            if (!a.target.isGlobal()) {
+                if (!defined(a.source, i)) demote(i, a.target.slot());
+                da = da.clone();
+                da[a.target.slot()] = true;
+            }
+        }
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            reads(c.test, i, da);
+            boolean[] t = scan(c.thenbranch, i, da.clone());
+            boolean[] e = c.elsebranch != null ? scan(c.elsebranch, i, da.clone()) : da;
+
+            da = new boolean[da.length];
+            for (int k = 0; k < da.length; k++) {
+                da[k] = t[k] && e[k];
+            }
+        }
+        else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            reads(l.test, i, da);
+            scan(l.body, i, da.clone());
+        }
+        else if (s instanceof Print) {
+            reads(((Print) s).expression, i, da);
+        }
+        else if (s instanceof StatementCall) {
+            StatementCall c = (StatementCall) s;
+            call(c.function, c.params, i, da);
+        }
+        else if (s instanceof Return) {
+            Expression r = ((Return) s).result;
+            reads(r, i, da);
+
+            if (i.result != V && i.result != J && !defined(r, i)) {
+                i.result = J;
+                changed = true;
+            }
+
+            da = new boolean[da.length]; // nothing after a return is reached
+            Arrays.fill(da, true);
+        }
+
+        return da;
+    }
+
+    private void reads(Expression e, Info i, boolean[] da) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            if (!v.isGlobal() && !da[v.slot()]) demote(i, v.slot());
+        }
+        else if (e instanceof Binary) {
+            reads(((Binary) e).term1, i, da);
+            reads(((Binary) e).term2, i, da);
+        }
+        else if (e instanceof Unary) {
+            reads(((Unary) e).term, i, da);
+        }
+        else if (e instanceof ExpressionCall) {
+            ExpressionCall c = (ExpressionCall) e;
+            call(c.function, c.params, i, da);
+        }
+    }
+
+    private void call(Function f, ArrayList<Expression> args, Info i, boolean[] da) {
+        Info callee = info.get(f);
+
+        for (int k = 0; k < args.size(); k++) {
+            reads(args.get(k), i, da);
+            if (!defined(args.get(k), i)) demote(callee, k);
+        }
+    }
+
+    // whether e is typed : operators either produce a value or throw
+    private boolean defined(Expression e, Info i) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            return !v.isGlobal() && i.kinds[v.slot()] != J;
+        }
+        if (e instanceof Value) {
+            return !((Value) e).isUndef();
+        }
+        if (e instanceof ExpressionCall) {
+            char r = info.get(((ExpressionCall) e).function).result;
+            return r == I || r == F;
+        }
+        return true;
+    }
+
+    // whether control can reach the end of s
+    private static boolean completes(Statement s) {
+        if (s instanceof Return) {
+            return false;
+        }
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) {
+                if (!completes(m)) return false;
+            }
+            return true;
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return c.elsebranch == null || completes(c.thenbranch) || completes(c.elsebranch);
+        }
+        return true;
+    }
+
+    private byte[] program() {
+        Declarations globals = prog.globals;
+
+        code = new ClassFile.Code();
+        for (Declaration d : globals) {
+            cf.addField(ClassFile.ACC_STATIC, d.v.toString(), "J");
+            code.op2(ClassFile.LDC2_W, cf.longer(Bytecode.UNDEF), 2);
+            code.op2(ClassFile.PUTSTATIC, cf.field(NAME, d.v.toString(), "J"), -2);
+        }
+        code.exit(ClassFile.RETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, "<clinit>", "()V", code);
+
+        functions();
+
+        // $run calls main and drops its result
+        code = new ClassFile.Code();
+        pop(invoke(prog.functions.find(new Variable("main"))));
+        code.exit(ClassFile.RETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, ENTRY, "()V", code);
+
+        if (runtime.equals(NAME)) {
+            helpers();
+            main();
+        }
+
+        return cf.toBytes();
+    }
+
+    private static final String BUFFER = "java/lang/StringBuilder", EXCEPTION = "java/lang/IllegalArgumentException";
+
+    // the methods Jit provides, over a StringBuilder held in $out
+    private void helpers() {
+        String out = "Ljava/lang/StringBuilder;";
+        cf.addField(ClassFile.ACC_STATIC, "$out", out);
+
+        code = new ClassFile.Code();
+        code.op2(ClassFile.NEW, cf.cls(BUFFER), 1);
+        code.op(ClassFile.DUP, 1);
+        code.op2(ClassFile.INVOKESPECIAL, cf.method(BUFFER, "<init>", "()V"), -1);
+        code.op2(ClassFile.PUTSTATIC, cf.field(NAME, "$out", out), -1);
+        code.exit(ClassFile.RETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, "$init", "()V", code);
+
+        // defined(long v, String message) : (int) v, unless v is undef
+        for (char k : new char[] { I, F }) {
+            code = new ClassFile.Code();
+            ClassFile.Label ok = new ClassFile.Label();
+            code.local(ClassFile.LLOAD, 0, 2, 2);
+            code.op2(ClassFile.LDC2_W, cf.longer(Bytecode.UNDEF), 2);
+            code.op(ClassFile.LCMP, -3);
+            code.jump(ClassFile.IFNE, ok, -1);
+            code.op2(ClassFile.NEW, cf.cls(EXCEPTION), 1);
+            code.op(ClassFile.DUP, 1);
+            code.local(ClassFile.ALOAD, 2, 1, 1);
+            code.op2(ClassFile.INVOKESPECIAL, cf.method(EXCEPTION, "<init>", "(Ljava/lang/String;)V"), -2);
+            code.exit(ClassFile.ATHROW);
+            code.place(ok);
+            code.local(ClassFile.LLOAD, 0, 2, 2);
+            code.op(ClassFile.L2I, -1);
+            if (k == F) {
+                code.op2(ClassFile.INVOKESTATIC, cf.method("java/lang/Float", "intBitsToFloat", "(I)F"), 0);
+                code.exit(ClassFile.FRETURN);
+            }
+            else {
+                code.exit(ClassFile.IRETURN);
+            }
+            cf.addMethod(ClassFile.ACC_STATIC, k == F ? "definedFloat" : "defined", "(JLjava/lang/String;)" + k, code);
+        }
+
+        // fail(String message) : throws, typed int for the caller's stack
+        code = new ClassFile.Code();
+        code.op2(ClassFile.NEW, cf.cls(EXCEPTION), 1);
+        code.op(ClassFile.DUP, 1);
+        code.local(ClassFile.ALOAD, 0, 1, 1);
+        code.op2(ClassFile.INVOKESPECIAL, cf.method(EXCEPTION, "<init>", "(Ljava/lang/String;)V"), -2);
+        code.exit(ClassFile.ATHROW);
+        cf.addMethod(ClassFile.ACC_STATIC, "fail", "(Ljava/lang/String;)I", code);
+
+        append("print", "(I)V", ClassFile.ILOAD, "(I)");
+        append("print", "(F)V", ClassFile.FLOAD, "(F)");
+        append("printChar", "(I)V", ClassFile.ILOAD, "(C)");
+        append("printBool", "(I)V", ClassFile.ILOAD, "(Z)");
+        append("print", "(Ljava/lang/String;)V", ClassFile.ALOAD, "(Ljava/lang/String;)");
+
+        // print(long v, int type) : as the Value would print
+        code = new ClassFile.Code();
+        ClassFile.Label undef = new ClassFile.Label();
+        code.local(ClassFile.LLOAD, 0, 2, 2);
+        code.op2(ClassFile.LDC2_W, cf.longer(Bytecode.UNDEF), 2);
+        code.op(ClassFile.LCMP, -3);
+        code.jump(ClassFile.IFEQ, undef, -1);
+        int[] types = { Bytecode.P_FLOAT, Bytecode.P_CHAR, Bytecode.P_BOOL, Bytecode.P_INT };
+        String[] printers = { "print", "printChar", "printBool", "print" };
+        for (int t = 0; t < types.length; t++) {
+            ClassFile.Label next = new ClassFile.Label();
+            code.local(ClassFile.ILOAD, 2, 1, 1);
+            pushInt(types[t]);
+            code.jump(ClassFile.IF_ICMPNE, next, -2);
+            code.local(ClassFile.LLOAD, 0, 2, 2);
+            code.op(ClassFile.L2I, -1);
+            if (types[t] == Bytecode.P_FLOAT) {
+                code.op2(ClassFile.INVOKESTATIC, cf.method("java/lang/Float", "intBitsToFloat", "(I)F"), 0);
+                runtime("print", "(F)V", -1);
+            }
+            else {
+                runtime(printers[t], "(I)V", -1);
+            }
+            code.exit(ClassFile.RETURN);
+            code.place(next);
+        }
+        code.place(undef);
+        code.op2(ClassFile.LDC_W, cf.string("undef"), 1);
+        runtime("print", "(Ljava/lang/String;)V", -1);
+        code.exit(ClassFile.RETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, "print", "(JI)V", code);
+
+        // flush() : $out to System.out
+        code = new ClassFile.Code();
+        code.op2(ClassFile.GETSTATIC, cf.field("java/lang/System", "out", "Ljava/io/PrintStream;"), 1);
+        code.op2(ClassFile.GETSTATIC, cf.field(NAME, "$out", out), 1);
+        code.op2(ClassFile.INVOKEVIRTUAL, cf.method("java/io/PrintStream", "print", "(Ljava/lang/Object;)V"), -2);
+        code.op2(ClassFile.GETSTATIC, cf.field(NAME, "$out", out), 1);
+        code.op(ClassFile.ICONST_0, 1);
+        code.op2(ClassFile.INVOKEVIRTUAL, cf.method(BUFFER, "setLength", "(I)V"), -2);
+        code.exit(ClassFile.RETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, "flush", "()V", code);
+    }
+
+    // name(x) appends x to $out, flushing every 8192 chars
+    private void append(String name, String desc, int load, String arg) {
+        code = new ClassFile.Code();
+        ClassFile.Label done = new ClassFile.Label();
+        code.op2(ClassFile.GETSTATIC, cf.field(NAME, "$out", "Ljava/lang/StringBuilder;"), 1);
+        code.local(load, 0, 1, 1);
+        code.op2(ClassFile.INVOKEVIRTUAL, cf.method(BUFFER, "append", arg + "Ljava/lang/StringBuilder;"), -1);
+        code.op2(ClassFile.INVOKEVIRTUAL, cf.method(BUFFER, "length", "()I"), 0);
+        code.op2(ClassFile.SIPUSH, 8192, 1);
+        code.jump(ClassFile.IF_ICMPLT, done, -2);
+        runtime("flush", "()V", 0);
+        code.place(done);
+        code.exit(ClassFile.RETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, name, desc, code);
+    }
+
+    // main runs the program, then prints the final globals as State does;
+    // an error is reported as Semantics reports it
+    private void main() {
+        code = new ClassFile.Code();
+        ClassFile.Label start = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        ClassFile.Label error = new ClassFile.Label();
+        ClassFile.Label done = new ClassFile.Label();
+
+        runtime("$init", "()V", 0);
+        code.place(start);
+        code.op2(ClassFile.INVOKESTATIC, cf.method(NAME, ENTRY, "()V"), 0);
+        code.place(end);
+        code.jump(ClassFile.GOTO, done, 0);
+
+        code.handler(start, end, error, "java/lang/RuntimeException");
+        code.place(error);
+        code.local(ClassFile.ASTORE, 1, 1, -1);
+        runtime("flush", "()V", 0);
+        code.op2(ClassFile.GETSTATIC, cf.field("java/lang/System", "err", "Ljava/io/PrintStream;"), 1);
+        code.local(ClassFile.ALOAD, 1, 1, 1);
+        code.op2(ClassFile.INVOKEVIRTUAL, cf.method("java/lang/Throwable", "getMessage", "()Ljava/lang/String;"), 0);
+        code.op2(ClassFile.INVOKEVIRTUAL, cf.method("java/io/PrintStream", "println", "(Ljava/lang/String;)V"), -2);
+        code.op(ClassFile.ICONST_0 + 1, 1);
+        code.op2(ClassFile.INVOKESTATIC, cf.method("java/lang/System", "exit", "(I)V"), -1);
+        code.exit(ClassFile.RETURN);
+
+        code.place(done);
+
+        // same order as State, a HashMap, would list them
+        State order = new State();
+        for (Declaration d : prog.globals) {
+            order.put(d.v, Value.mkValue(d.t));
+        }
+
+        String text = "\n\n[ Final Globals ]\n[";
+        for (Variable v : order.keySet()) {
+            Type t = TypeChecker.typing(prog.globals).get(v);
+            code.op2(ClassFile.LDC_W, cf.string(text + v + "="), 1);
+            runtime("print", "(Ljava/lang/String;)V", -1);
+            code.op2(ClassFile.GETSTATIC, cf.field(NAME, v.toString(), "J"), 2);
+            pushInt(printType(t));
+            runtime("print", "(JI)V", -3);
+            text = ", ";
+        }
+        code.op2(ClassFile.LDC_W, cf.string((order.isEmpty() ? text : "") + "]\n\n"), 1);
+        runtime("print", "(Ljava/lang/String;)V", -1);
+        runtime("flush", "()V", 0);
+        code.exit(ClassFile.RETURN);
+        cf.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "main", "([Ljava/lang/String;)V", code);
+    }
+
+    // $enter(Value[] frame) calls f with the params in frame, returns the
+    // result as a Value, null when f has none
+    private byte[] enter(Function f) {
+        functions();
+
+        Info i = info.get(f);
+        code = new ClassFile.Code();
+        code.locals(1);
+
+        for (int k = 0; k < f.params.size(); k++) {
+            slot(i.kinds[k], k);
+        }
+        box(invoke(f), f.type);
+        code.exit(ClassFile.ARETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, "$enter", "([LValue;)LValue;", code);
+
+        return cf.toBytes();
+    }
+
+    // $loop(Value[] frame) runs the loop on frame's values and stores them
+    // back when it ends, returning null, or returns the Value of a return
+    private byte[] osr(Function f) {
+        functions();
+
+        fi = osr;
+        tm = typeMap(f);
+        boxed = true;
+        code = new ClassFile.Code();
+        code.locals(1);
+
+        for (int k = 0; k < fi.kinds.length; k++) {
+            slot(fi.kinds[k], k);
+            store(fi.kinds[k], fi.locals[k]);
+        }
+
+        statement(loop);
+
+        for (int k = 0; k < fi.kinds.length; k++) {
+            char c = fi.kinds[k];
+            code.local(ClassFile.ALOAD, 0, 1, 1);
+            pushInt(k);
+            load(c, fi.locals[k]);
+
+            if (c == F) {
+                tier("storeFloat", "([LValue;IF)V", -3);
+            }
+            else {
+                pushInt(printType(fi.types[k]));
+                tier(c == J ? "storeLong" : "storeInt", "([LValue;I" + c + "I)V", c == J ? -5 : -4);
+            }
+        }
+
+        code.op(ClassFile.ACONST_NULL, 1);
+        code.exit(ClassFile.ARETURN);
+        cf.addMethod(ClassFile.ACC_STATIC, "$loop", "([LValue;)LValue;", code);
+
+        return cf.toBytes();
+    }
+
+    private void functions() {
+        for (Function f : unit) {
+            tm = typeMap(f);
+            function(f);
+        }
+    }
+
+    private TypeMap typeMap(Function f) {
+        TypeMap m = TypeChecker.typing(prog.globals);
+        m.putAll(TypeChecker.typing(f.params));
+        m.putAll(TypeChecker.typing(f.locals));
+        return m;
+    }
+
+    // pushes slot k of the frame in local 0 as kind c
+    private void slot(char c, int k) {
+        code.local(ClassFile.ALOAD, 0, 1, 1);
+        pushInt(k);
+        tier(c == J ? "longSlot" : c == F ? "floatSlot" : "intSlot", "([LValue;I)" + c, width(c) - 2);
+    }
+
+    private void box(char k, Type t) {
+        if (k == V) {
+            code.op(ClassFile.ACONST_NULL, 1);
+        }
+        else if (k == F) {
+            tier("box", "(F)LValue;", 0);
+        }
+        else {
+            pushInt(printType(t));
+            tier("box", "(" + k + "I)LValue;", -width(k));
+        }
+    }
+
+    private void function(Function f) {
+        fi = info.get(f);
+        boxed = false;
+        code = new ClassFile.Code();
+
+        int n = fi.kinds.length;
+        code.locals(n == 0 ? 0 : fi.locals[n - 1] + (fi.kinds[n - 1] == J ? 2 : 1));
+
+        // undef locals start out undef; typed ones are assigned before use
+        for (int k = f.params.size(); k < n; k++) {
+            if (fi.kinds[k] == J) {
+                code.op2(ClassFile.LDC2_W, cf.longer(Bytecode.UNDEF), 2);
+                code.local(ClassFile.LSTORE, fi.locals[k], 2, -2);
+            }
+        }
+
+        statement(f.body);
+
+        // fell off the end : only reachable for V and J results
+        if (fi.result == V) {
+            code.exit(ClassFile.RETURN);
+        }
+        else if (fi.result == J) {
+            code.op2(ClassFile.LDC2_W, cf.longer(Bytecode.UNDEF), 2);
+            code.exit(ClassFile.LRETURN);
+        }
+        else if (fi.result == F) {
+            code.op(ClassFile.FCONST_0, 1);
+            code.exit(ClassFile.FRETURN);
+        }
+        else {
+            code.op(ClassFile.ICONST_0, 1);
+            code.exit(ClassFile.IRETURN);
+        }
+
+        cf.addMethod(ClassFile.ACC_STATIC, f.name.toString(), fi.desc, code);
+    }
+
+    private void statement(Statement s) {
+        if (s instanceof Skip) {
+            return;
+        }
+        else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) {
+                statement(m);
+            }
+        }
+        else if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            Variable v = a.target;
+
+            if (v.isGlobal()) {
+                convert(expression(a.source), J);
+
+                if (tiered) {
+                    pushInt(v.slot());
+                    tier("setGlobal", "(JI)V", -3);
+                }
+                else {
+                    code.op2(ClassFile.PUTSTATIC, cf.field(NAME, v.toString(), "J"), -2);
+                }
+            }
+            else {
+                char k = fi.kinds[v.slot()];
+                convert(expression(a.source), k);
+                store(k, fi.locals[v.slot()]);
+            }
+        }
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            ClassFile.Label otherwise = new ClassFile.Label();
+            branchIfFalse(c.test, otherwise);
+            statement(c.thenbranch);
+
+            if (c.elsebranch != null) {
+                ClassFile.Label end = new ClassFile.Label();
+                if (code.reachable()) code.jump(ClassFile.GOTO, end, 0);
+                code.place(otherwise);
+                statement(c.elsebranch);
+                code.place(end);
+            }
+            else {
+                code.place(otherwise);
+            }
+        }
+        else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            ClassFile.Label head = new ClassFile.Label();
+            ClassFile.Label end = new ClassFile.Label();
+            code.place(head);
+            branchIfFalse(l.test, end);
+            statement(l.body);
+            if (code.reachable()) code.jump(ClassFile.GOTO, head, 0);
+            code.place(end);
+        }
+        else if (s instanceof Print) {
+            Expression e = ((Print) s).expression;
+            char k = expression(e);
+
+            if (k == V) {
+                code.op2(ClassFile.LDC2_W, cf.longer(Bytecode.UNDEF), 2);
+                k = J;
+            }
+
+            if (k == J) {
+                pushInt(printType(typeOf(e)));
+                runtime("print", "(JI)V", -3);
+            }
+            else if (k == F) {
+                runtime("print", "(F)V", -1);
+            }
+            else {
+                Type t = typeOf(e);
+                runtime(t == Type.CHAR ? "printChar" : t == Type.BOOL ? "printBool" : "print", "(I)V", -1);
+            }
+        }
+        else if (s instanceof StatementCall) {
+            StatementCall c = (StatementCall) s;
+            pop(call(c.function, c.params));
+        }
+        else if (s instanceof Return) {
+            Expression r = ((Return) s).result;
+
+            if (boxed) {
+                box(expression(r), typeOf(r));
+                code.exit(ClassFile.ARETURN);
+            }
+            else if (fi.result == V) {
+                pop(expression(r));
+                code.exit(ClassFile.RETURN);
+            }
+            else {
+                convert(expression(r), fi.result);
+                code.exit(fi.result == J ? ClassFile.LRETURN
+                        : fi.result == F ? ClassFile.FRETURN : ClassFile.IRETURN);
+            }
+        }
+        else {
+            throw new UnsupportedOperationException("jit : " + s);
+        }
+    }
+
+    // Leaves e on the stack and returns its kind.
+    private char expression(Expression e) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+
+            if (v.isGlobal()) {
+                if (tiered) {
+                    pushInt(v.slot());
+                    tier("global", "(I)J", 1);
+                }
+                else {
+                    code.op2(ClassFile.GETSTATIC, cf.field(NAME, v.toString(), "J"), 2);
+                }
+                return J;
+            }
+
+            char k = fi.kinds[v.slot()];
+            load(k, fi.locals[v.slot()]);
+            return k;
+        }
+        else if (e instanceof Value) {
+            Value v = (Value) e;
+
+            if (v.isUndef()) {
+                code.op2(ClassFile.LDC2_W, cf.longer(Bytecode.UNDEF), 2);
+                return J;
+            }
+            if (v.type() == Type.FLOAT) {
+                pushFloat(v.floatValue());
+                return F;
+            }
+
+            pushInt((int) Compiler.encode(v));
+            return I;
+        }
+        else if (e instanceof Binary) {
+            return binary((Binary) e);
+        }
+        else if (e instanceof Unary) {
+            return unary((Unary) e);
+        }
+        else if (e instanceof ExpressionCall) {
+            ExpressionCall c = (ExpressionCall) e;
+            return call(c.function, c.params);
+        }
+
+        throw new UnsupportedOperationException("jit : " + e);
+    }
+
+    private char binary(Binary b) {
+        String op = b.op.toString();
+
+        switch (b.op.code) {
+            case INT_PLUS: ints(b, op); code.op(ClassFile.IADD, -1); return I;
+            case INT_MINUS: ints(b, op); code.op(ClassFile.ISUB, -1); return I;
+            case INT_TIMES: ints(b, op); code.op(ClassFile.IMUL, -1); return I;
+            case INT_DIV: ints(b, op); code.op(ClassFile.IDIV, -1); return I;
+            case INT_REM: ints(b, op); code.op(ClassFile.IREM, -1); return I;
+            case FLOAT_PLUS: floats(b, op); code.op(ClassFile.FADD, -1); return F;
+            case FLOAT_MINUS: floats(b, op); code.op(ClassFile.FSUB, -1); return F;
+            case FLOAT_TIMES: floats(b, op); code.op(ClassFile.FMUL, -1); return F;
+            case FLOAT_DIV: floats(b, op); code.op(ClassFile.FDIV, -1); return F;
+            case FLOAT_REM: floats(b, op); code.op(ClassFile.FREM, -1); return F;
+            case AND: ints(b, op); code.op(ClassFile.IAND, -1); return I;
+            case OR: ints(b, op); code.op(ClassFile.IOR, -1); return I;
+            default:
+                break;
+        }
+
+        if (comparison(b.op.code)) {
+            ClassFile.Label no = new ClassFile.Label();
+            ClassFile.Label end = new ClassFile.Label();
+            branchIfFalse(b, no);
+            code.op(ClassFile.ICONST_0 + 1, 1);
+            code.jump(ClassFile.GOTO, end, 0);
+            code.place(no);
+            code.op(ClassFile.ICONST_0, 1);
+            code.place(end);
+            return I;
+        }
+
+        // typed, but not evaluable : fails when reached
+        return fail("apply binary error : " + op, kind(b.op.code.type));
+    }
+
+    private char unary(Unary u) {
+        String op = u.op.toString();
+
+        switch (u.op.code) {
+            case INT_NEG: operand(u.term, I, op); code.op(ClassFile.INEG, 0); return I;
+            case FLOAT_NEG: operand(u.term, F, op); code.op(ClassFile.FNEG, 0); return F;
+            case NOT: operand(u.term, I, op); code.op(ClassFile.ICONST_0 + 1, 1); code.op(ClassFile.IXOR, -1); return I;
+            case I2F: operand(u.term, I, op); code.op(ClassFile.I2F, 0); return F;
+            case F2I: operand(u.term, F, op); code.op(ClassFile.F2I, 0); return I;
+            case C2I: operand(u.term, I, op); return I;
+            case I2C: operand(u.term, I, op); code.op(ClassFile.I2C, 0); return I;
+            default:
+                return fail("apply unary error : " + op, kind(u.op.code.type));
+        }
+    }
+
+    private static boolean comparison(Opcode c) {
+        switch (c) {
+            case INT_LT: case INT_LE: case INT_EQ: case INT_NE: case INT_GT: case INT_GE:
+            case CHAR_LT: case CHAR_LE: case CHAR_EQ: case CHAR_NE: case CHAR_GT: case CHAR_GE:
+            case FLOAT_LT: case FLOAT_LE: case FLOAT_EQ: case FLOAT_NE: case FLOAT_GT: case FLOAT_GE:
+            case BOOL_EQ: case BOOL_NE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Jumps to no when test is false. Comparisons branch directly, any
+    // other test is evaluated and, if possibly undef, checked first.
+    private void branchIfFalse(Expression test, ClassFile.Label no) {
+        if (test instanceof Binary && comparison(((Binary) test).op.code)) {
+            Binary b = (Binary) test;
+            String op = b.op.toString();
+
+            switch (b.op.code) {
+                case FLOAT_LT: floats(b, op); code.op(ClassFile.FCMPG, -1); code.jump(ClassFile.IFGE, no, -1); return;
+                case FLOAT_LE: floats(b, op); code.op(ClassFile.FCMPG, -1); code.jump(ClassFile.IFGT, no, -1); return;
+                case FLOAT_EQ: floats(b, op); code.op(ClassFile.FCMPL, -1); code.jump(ClassFile.IFNE, no, -1); return;
+                case FLOAT_NE: floats(b, op); code.op(ClassFile.FCMPL, -1); code.jump(ClassFile.IFEQ, no, -1); return;
+                case FLOAT_GT: floats(b, op); code.op(ClassFile.FCMPL, -1); code.jump(ClassFile.IFLE, no, -1); return;
+                case FLOAT_GE: floats(b, op); code.op(ClassFile.FCMPL, -1); code.jump(ClassFile.IFLT, no, -1); return;
+                default:
+                    break;
+            }
+
+            ints(b, op);
+
+            switch (b.op.code) {
+                case INT_LT: case CHAR_LT: code.jump(ClassFile.IF_ICMPGE, no, -2); return;
+                case INT_LE: case CHAR_LE: code.jump(ClassFile.IF_ICMPGT, no, -2); return;
+                case INT_EQ: case CHAR_EQ: case BOOL_EQ: code.jump(ClassFile.IF_ICMPNE, no, -2); return;
+                case INT_NE: case CHAR_NE: case BOOL_NE: code.jump(ClassFile.IF_ICMPEQ, no, -2); return;
+                case INT_GT: case CHAR_GT: code.jump(ClassFile.IF_ICMPLE, no, -2); return;
+                default: code.jump(ClassFile.IF_ICMPLT, no, -2); return;
+            }
+        }
+
+        if (expression(test) == J) {
+            code.op2(ClassFile.LDC_W, cf.string("undef value error : " + test), 1);
+            runtime("defined", "(JLjava/lang/String;)I", -2);
+        }
+        code.jump(ClassFile.IFEQ, no, -1);
+    }
+
+    private void ints(Binary b, String op) {
+        operands(b, I, op);
+    }
+
+    private void floats(Binary b, String op) {
+        operands(b, F, op);
+    }
+
+    // Both operands, as k. A term1 that may be undef is checked only once
+    // term2 is evaluated, as the interpreter evaluates both first : the
+    // long is rotated above term2 for its check and swapped back after.
+    private void operands(Binary b, char k, String op) {
+        if (expression(b.term1) != J) {
+            operand(b.term2, k, op);
+            return;
+        }
+        operand(b.term2, k, op);
+        code.op(ClassFile.DUP_X2, 1);
+        code.op(ClassFile.POP, -1);
+        code.op2(ClassFile.LDC_W, cf.string("undef value error : " + op), 1);
+        runtime(k == F ? "definedFloat" : "defined", "(JLjava/lang/String;)" + k, -2);
+        code.op(ClassFile.SWAP, 0);
+    }
+
+    // an operand that may be undef is checked as soon as it is produced
+    private void operand(Expression e, char k, String op) {
+        if (expression(e) == J) {
+            code.op2(ClassFile.LDC_W, cf.string("undef value error : " + op), 1);
+            runtime(k == F ? "definedFloat" : "defined", "(JLjava/lang/String;)" + k, -2);
+        }
+    }
+
+    private char call(Function f, ArrayList<Expression> args) {
+        Info callee = info.get(f);
+
+        for (int k = 0; k < args.size(); k++) {
+            convert(expression(args.get(k)), callee.kinds[k]);
+        }
+
+        return invoke(f);
+    }
+
+    private char invoke(Function f) {
+        Info callee = info.get(f);
+        int effect = width(callee.result);
+
+        for (int k = 0; k < f.params.size(); k++) {
+            effect -= width(callee.kinds[k]);
+        }
+
+        code.op2(ClassFile.INVOKESTATIC, cf.method(NAME, f.name.toString(), callee.desc), effect);
+        return callee.result;
+    }
+
+    private void convert(char from, char to) {
+        if (from == to) return;
+
+        if (to == J && from == I) {
+            code.op(ClassFile.I2L, 1);
+        }
+        else if (to == J && from == F) {
+            code.op2(ClassFile.INVOKESTATIC, cf.method("java/lang/Float", "floatToRawIntBits", "(F)I"), 0);
+            code.op(ClassFile.I2L, 1);
+        }
+        else {
+            throw new UnsupportedOperationException("jit : cannot convert " + from + " to " + to);
+        }
+    }
+
+    private char fail(String message, char k) {
+        code.op2(ClassFile.LDC_W, cf.string(message), 1);
+        runtime("fail", "(Ljava/lang/String;)I", 0);
+        if (k == F) code.op(ClassFile.I2F, 0);
+        return k;
+    }
+
+    private void pop(char k) {
+        if (k == J) code.op(ClassFile.POP2, -2);
+        else if (k != V) code.op(ClassFile.POP, -1);
+    }
+
+    private void load(char k, int local) {
+        code.local(k == J ? ClassFile.LLOAD : k == F ? ClassFile.FLOAD : ClassFile.ILOAD,
+                local, width(k), width(k));
+    }
+
+    private void store(char k, int local) {
+        code.local(k == J ? ClassFile.LSTORE : k == F ? ClassFile.FSTORE : ClassFile.ISTORE,
+                local, width(k), -width(k));
+    }
+
+    private static int width(char k) {
+        return k == J ? 2 : k == V ? 0 : 1;
+    }
+
+    private void runtime(String name, String desc, int effect) {
+        code.op2(ClassFile.INVOKESTATIC, cf.method(runtime, name, desc), effect);
+    }
+
+    private void tier(String name, String desc, int effect) {
+        code.op2(ClassFile.INVOKESTATIC, cf.method(TIER, name, desc), effect);
+    }
+
+    private void pushInt(int v) {
+        if (v >= -1 && v <= 5)
+            code.op(ClassFile.ICONST_0 + v, 1);
+        else if (v == (byte) v)
+            code.op1(ClassFile.BIPUSH, v, 1);
+        else if (v == (short) v)
+            code.op2(ClassFile.SIPUSH, v, 1);
+        else
+            code.op2(ClassFile.LDC_W, cf.integer(v), 1);
+    }
+
+    private void pushFloat(float v) {
+        int bits = Float.floatToRawIntBits(v);
+
+        if (bits == 0 || v == 1.0f || v == 2.0f)
+            code.op(ClassFile.FCONST_0 + (int) v, 1);
+        else
+            code.op2(ClassFile.LDC_W, cf.floating(v), 1);
+    }
+
+    private Type typeOf(Expression e) {
+        if (e instanceof Variable) return tm.get(e);
+        if (e instanceof Value) return ((Value) e).type();
+        if (e instanceof Binary) return ((Binary) e).op.code.type;
+        if (e instanceof Unary) return ((Unary) e).op.code.type;
+        if (e instanceof ExpressionCall) return ((ExpressionCall) e).function.type;
+        throw new UnsupportedOperationException("jit : " + e);
+    }
+
+    private static int printType(Type t) {
+        if (t == Type.INT) return Bytecode.P_INT;
+        if (t == Type.FLOAT) return Bytecode.P_FLOAT;
+        if (t == Type.CHAR) return Bytecode.P_CHAR;
+        if (t == Type.BOOL) return Bytecode.P_BOOL;
+        return Bytecode.P_VOID;
+    }
+}
@@ -1,65 +1,143 @@
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
 
 public class Lexer {
+    // The source is mapped and decoded into one char[] and scanned by
+    // index. Identifiers and literals are Tokens over a slice of it,
+    // whose String is only made when the parser asks for the value.
+    // scan() reads a token without making one, for Tokens, and works
+    // out a literal's value as it goes.
 
-    private boolean isEof = false;
     private char ch = ' '; 
-    private BufferedReader input;
-    private String line = "";
-    private int lineno = 0;
-    private int col = 1;
-    private final String letters = "abcdefghijklmnopqrstuvwxyz"
-        + "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private final String digits = "0123456789";
+    private char[] source;
+    private int end;            // source[0 .. end) is the text
+    private int pos = -1;       // index of ch
+    private int start;          // index of the first char of the last token
+    private Token name;         // the last identifier
+    private int bits;           // the last literal's int, float bits or char
+    private boolean exact;      // whether bits is it, else it is parsed from the text
+    private static final long DIGITS_MAX = 1L << 53;
+    private static final float[] POW10 = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
     private final char eolnCh = '\n';
     private final char eofCh = '\004';
+    // identifier Tokens by spelling, open addressing : one Token, and so
+    // one String, per name
+    private Token[] names = new Token[1024];
+    private int[] hashes = new int[1024];
+    private int nameCount = 0;
+    // the table names are numbered in, current when the Lexer is made
+    private final Symbols symbols = Symbols.current();
+    // a part of a source, for ParallelParser and FrontEnd : errors throw
+    // ParseError
+    private boolean part = false;
     
 
     public Lexer (String fileName) { // source filename
+        FileChannel input = null;
         try {
-            input = new BufferedReader (new FileReader(fileName));
+            input = FileChannel.open(Paths.get(fileName));
         }
-        catch (FileNotFoundException e) {
+        catch (IOException | InvalidPathException e) {
             System.out.println("File not found: " + fileName);
             System.exit(1);
         }
+
+        try (FileChannel in = input) {
+            CharBuffer text = Charset.defaultCharset().decode(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
+            source = lines(text.array(), text.limit());
+            end = source.length;
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        } // try
+    }
+
+    // text[0 .. end) with its last line ended in '\n', as if read by
+    // readLine : text itself if it is just that, else a copy. A source
+    // given to Lexer(char[], from, to) goes through it too.
+    static char[] lines(char[] text, int end) {
+        if (end > 0 && text[end - 1] != '\n') {
+            char[] t = java.util.Arrays.copyOf(text, end + 1);
+            t[end] = '\n';
+            return t;
+        }
+        return end == text.length ? text : java.util.Arrays.copyOf(text, end);
+    }
+
+    public Lexer (char[] text, int from, int to) { // text[from .. to) of a source
+        source = text;
+        pos = from - 1;
+        end = to;
+        part = true;
     }
 
     private char nextChar() { // Return next char
         if (ch == eofCh)
             error("Attempt to read past end of file");
-        col++;
-        if (col >= line.length()) {
-            try {
-                line = input.readLine( );
-            } catch (IOException e) {
-                System.err.println(e);
-                System.exit(1);
-            } // try
-            if (line == null) // at end of file
-                line = "" + eofCh;
-            else {
-                // System.out.println(lineno + ":\t" + line);
-                lineno++;
-                line += eolnCh;
-            } // if line
-            col = 0;
-        } // if col
-        return line.charAt(col);
+        pos++;
+        if (pos >= end) // at end of file
+            return eofCh;
+        return source[pos];
     }
             
 
     public Token next( ) { // Return next token
+        TokenType t = scan();
+        if (t == TokenType.Identifier) return name;
+        return Token.of(t, source, start, pos);
+    } // next
+
+    // the text of the last token scanned is source()[start() .. end())
+    public char[] source( ) { return source; }
+
+    public int start( ) { return start; }
+
+    public int end( ) { return Math.min(pos, end); }
+
+    // the text ends before source()[size()]
+    public int size( ) { return end; }
+
+    // the number of the last identifier scanned, in symbols()
+    public int symbol( ) { return name.symbol(); }
+
+    public Symbols symbols( ) { return symbols; }
+
+    // the value of the last literal scanned, as an int, the bits of a
+    // float or a char, if exact()
+    public int bits( ) { return bits; }
+
+    public boolean exact( ) { return exact; }
+
+    public TokenType scan( ) { // Return the type of the next token
         do {
+            start = pos;
             if (isLetter(ch)) { // ident or keyword
-                String spelling = concat(letters + digits);
-                return Token.keyword(spelling);
+                do {
+                    ch = nextChar();
+                } while (isLetter(ch) || isDigit(ch));
+                Token k = Token.keyword(source, start, pos - start);
+                if (k != null) return k.type();
+                name = identifier(start, pos - start);
+                return TokenType.Identifier;
             } else if (isDigit(ch)) { // int or float literal
-                String number = concat(digits);
-                if (ch != '.')  // int Literal
-                    return Token.mkIntLiteral(number);
-                number += concat(digits);
-                return Token.mkFloatLiteral(number);
+                long m = skipDigits(0);
+                if (ch != '.') { // int Literal
+                    exact = m <= Integer.MAX_VALUE;
+                    bits = (int) m;
+                    return TokenType.IntLiteral;
+                }
+                int point = pos;
+                m = skipDigits(m);
+                // m / 10^scale is exact in float arithmetic while m and
+                // 10^scale are floats exactly, and then rounds as parseFloat
+                int scale = pos - point - 1;
+                exact = m < 1 << 24 && scale < POW10.length;
+                if (exact)
+                    bits = Float.floatToIntBits(m / POW10[scale]);
+                return TokenType.FloatLiteral;
             } else switch (ch) {
             case ' ': case '\t': case '\r': case eolnCh:
                 ch = nextChar();
@@ -67,7 +145,7 @@ public class Lexer {
             
             case '/':  // divide or comment
                 ch = nextChar();
-                if (ch != '/')  return Token.divideTok;
+                if (ch != '/')  return TokenType.Divide;
                 // comment
                 do {
                     ch = nextChar();
@@ -84,7 +162,9 @@ public class Lexer {
                     if (ch1 == 'n') {
                         nextChar();
                         ch = nextChar();
-                        return Token.mkCharLiteral("\n");
+                        bits = eolnCh;
+                        exact = true;
+                        return TokenType.CharLiteral;
                     }
                     else {
                         error("Illegal character " + "\\" + ch1);
@@ -93,58 +173,60 @@ public class Lexer {
 
                 nextChar(); // get '
                 ch = nextChar();
-                return Token.mkCharLiteral("" + ch1);
+                bits = ch1;
+                exact = true;
+                return TokenType.CharLiteral;
                 
-            case eofCh: return Token.eofTok;
+            case eofCh: return TokenType.Eof;
             
             case '+': ch = nextChar();
-                return Token.plusTok;
+                return TokenType.Plus;
 
                 // - * ( ) { } ; ,  student exercise
             case '-': ch = nextChar();
-            	return Token.minusTok;
+            	return TokenType.Minus;
             case '*': ch = nextChar();
-            	return Token.multiplyTok;
+            	return TokenType.Multiply;
             case '%': ch = nextChar();
-                return Token.remainTok;
+                return TokenType.Remain;
 
             case '(': ch = nextChar();
-            	return Token.leftParenTok;
+            	return TokenType.LeftParen;
             case ')': ch = nextChar();
-            	return Token.rightParenTok;
+            	return TokenType.RightParen;
             	
             case '{': ch = nextChar();
-            	return Token.leftBraceTok;
+            	return TokenType.LeftBrace;
             case '}': ch = nextChar();
-            	return Token.rightBraceTok;
+            	return TokenType.RightBrace;
             	
             case ';': ch = nextChar();
-            	return Token.semicolonTok;
+            	return TokenType.Semicolon;
             	
             case ',': ch = nextChar();
-            	return Token.commaTok;
+            	return TokenType.Comma;
                 
-            case '&': check('&'); return Token.andTok;
-            case '|': check('|'); return Token.orTok;
+            case '&': check('&'); return TokenType.And;
+            case '|': check('|'); return TokenType.Or;
 
             case '=':
-                return chkOpt('=', Token.assignTok,
-                                   Token.eqeqTok);
+                return chkOpt('=', TokenType.Assign,
+                                   TokenType.Equals);
                 // < > !  student exercise
             case '<':
-            	return chkOpt('=', Token.ltTok,
-            					   Token.lteqTok);
+            	return chkOpt('=', TokenType.Less,
+            					   TokenType.LessEqual);
             case '>':
-            	return chkOpt('=', Token.gtTok,
-            					   Token.gteqTok);
+            	return chkOpt('=', TokenType.Greater,
+            					   TokenType.GreaterEqual);
             case '!':
-            	return chkOpt('=', Token.notTok,
-            					   Token.noteqTok);
+            	return chkOpt('=', TokenType.Not,
+            					   TokenType.NotEqual);
 
             default:  error("Illegal character " + ch); 
             } // switch
         } while (true);
-    } // next
+    } // scan
 
 
     private boolean isLetter(char c) {
@@ -162,7 +244,7 @@ public class Lexer {
         ch = nextChar();
     }
 
-    private Token chkOpt(char c, Token one, Token two) {
+    private TokenType chkOpt(char c, TokenType one, TokenType two) {
     	ch = nextChar();
     	if (ch == c) {
     		ch = nextChar();
@@ -171,18 +253,71 @@ public class Lexer {
         return one;  // student exercise
     }
 
-    private String concat(String set) {
-        String r = "";
+    private Token identifier(int start, int len) {
+        int h = 0;
+        for (int i = start; i < start + len; i++)
+            h = 31 * h + source[i];
+
+        int mask = names.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            Token t = names[i];
+            if (t == null) {
+                t = Token.mkIdentTok(symbols, source, start, len);
+                names[i] = t;
+                hashes[i] = h;
+                if (++nameCount * 2 > names.length)
+                    grow();
+                return t;
+            }
+            if (hashes[i] == h && t.spells(source, start, len))
+                return t;
+        }
+    }
+
+    private void grow() {
+        Token[] oldNames = names;
+        int[] oldHashes = hashes;
+        names = new Token[oldNames.length * 2];
+        hashes = new int[oldNames.length * 2];
+
+        int mask = names.length - 1;
+        for (int j = 0; j < oldNames.length; j++) {
+            if (oldNames[j] == null) continue;
+            int i = oldHashes[j] & mask;
+            while (names[i] != null)
+                i = (i + 1) & mask;
+            names[i] = oldNames[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+    // past ch and the digits after it, returning m with those digits
+    // appended, or DIGITS_MAX once that would be more
+    private long skipDigits(long m) {
         do {
-            r += ch;
+            if (isDigit(ch))
+                m = m < DIGITS_MAX / 10 ? m * 10 + (ch - '0') : DIGITS_MAX;
             ch = nextChar();
-        } while (set.indexOf(ch) >= 0);
-        return r;
+        } while (isDigit(ch));
+        return m;
     }
 
     public void error (String msg) {
-        System.err.print(line);
-        System.err.println("Error: column " + col + " " + msg);
+        // the line holding ch, with its eolnCh
+        int start = Math.min(pos, end);
+        while (start > 0 && source[start - 1] != eolnCh)
+            start--;
+        int stop = start;
+        while (stop < end && source[stop] != eolnCh)
+            stop++;
+        if (stop > start && source[stop - 1] == '\r')
+            stop--;
+
+        String message = (pos >= end ? String.valueOf(eofCh) : new String(source, start, stop - start) + eolnCh)
+                + "Error: column " + (pos >= end ? 0 : pos - start) + " " + msg;
+        if (part) throw new ParseError(message);
+
+        System.err.println(message);
         System.exit(1);
     }
 }
@@ -0,0 +1,83 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+
+public class LexerBench {
+    // Lexer microbenchmark :
+    //     java LexerBench [file.cl] [runs]
+    // Lexes the file, by default a generated one of about a million
+    // tokens, runs times over (10 by default) and reports the time of
+    // each run and the best, in ms and tokens per second, with the bytes
+    // allocated by a run where the JVM can tell.
+
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : file(generate(1000000));
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        long best = Long.MAX_VALUE;
+        int tokens = 0;
+
+        for (int r = 0; r < runs; r++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            tokens = lex(file);
+            long t = System.nanoTime() - start;
+            bytes = allocated() - bytes;
+            best = Math.min(best, t);
+            System.out.println("[ run " + (r + 1) + " : " + t / 1000000 + " ms"
+                    + (bytes >= 0 ? ", " + bytes / 1024 + " KB allocated" : "") + " ]");
+        }
+
+        System.out.println("[ " + tokens + " tokens, best " + best / 1000000 + " ms, "
+                + (long) (tokens / (best / 1e9)) + " tokens/s ]");
+    }
+
+    // bytes allocated so far by this thread, or -1
+    static long allocated() {
+        java.lang.management.ThreadMXBean t = ManagementFactory.getThreadMXBean();
+        if (t instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) t).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    static int lex(String file) {
+        Lexer lexer = new Lexer(file);
+        int n = 0;
+        while (lexer.next().type() != TokenType.Eof) n++;
+        return n;
+    }
+
+    // A valid program of at least count tokens : functions with a mix of
+    // keywords, repeated and fresh identifiers, literals and comments.
+    static String generate(int count) {
+        StringBuilder b = new StringBuilder("int total;\n\n");
+        int n = 3, f = 0;
+
+        while (n < count) {
+            b.append("// function ").append(f).append('\n');
+            b.append("int step").append(f).append(" (int value, float scale) {\n");
+            b.append("    int i, acc;\n");
+            b.append("    acc = 0;\n");
+            b.append("    i = 0;\n");
+            b.append("    while (i < value) {\n");
+            b.append("        if (i % 3 == 0 && acc >= 0) acc = acc + int(scale * 2.5);\n");
+            b.append("        else acc = acc - i;\n");
+            b.append("        i = i + 1;\n");
+            b.append("    }\n");
+            b.append("    return acc;\n");
+            b.append("}\n\n");
+            n += 71;    // tokens above
+            f++;
+        }
+        b.append("int main ( ) {\n    total = step0(10, 1.5);\n    return 0;\n}\n");
+        return b.toString();
+    }
+
+    // source in a temporary file, for what lexes or parses a file
+    static String file(String source) throws IOException {
+        Path p = Files.createTempFile("clite", ".cl");
+        p.toFile().deleteOnExit();
+        Files.write(p, source.getBytes());
+        return p.toString();
+    }
+}
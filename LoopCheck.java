@@ -0,0 +1,100 @@
+import java.io.*;
+
+public class LoopCheck {
+    // Regression check for loops deeper than the Java stack :
+    //     java LoopCheck [trips]
+    // Runs, by Program.M on a thread with a 256 KB stack, loops of trips
+    // trips (1000000 by default) : a plain one, one nested in another,
+    // and one left by a return in a called function. Loop.M once recursed
+    // per trip, which overflowed such a stack within a few thousand trips.
+    // What each program prints has to be the count it makes : exits 1 if
+    // any does not, or if one overflows. code/loop.cl is the same check at
+    // 10^8 trips, on the default stack.
+
+    static final long STACK = 256 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int trips = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int outer = (int) Math.sqrt(trips);
+
+        String[][] checks = {
+            { "plain", "int main() {\n"
+                    + "    int i, sum;\n"
+                    + "    i = 0;\n"
+                    + "    sum = 0;\n"
+                    + "    while (i < " + trips + ") {\n"
+                    + "        sum = sum + 1;\n"
+                    + "        i = i + 1;\n"
+                    + "    }\n"
+                    + "    print sum;\n"
+                    + "    return 0;\n"
+                    + "}\n", Integer.toString(trips) },
+            { "nested", "int main() {\n"
+                    + "    int i, j, sum;\n"
+                    + "    i = 0;\n"
+                    + "    sum = 0;\n"
+                    + "    while (i < " + outer + ") {\n"
+                    + "        j = 0;\n"
+                    + "        while (j < " + outer + ") {\n"
+                    + "            sum = sum + 1;\n"
+                    + "            j = j + 1;\n"
+                    + "        }\n"
+                    + "        i = i + 1;\n"
+                    + "    }\n"
+                    + "    print sum;\n"
+                    + "    return 0;\n"
+                    + "}\n", Integer.toString(outer * outer) },
+            { "return", "int count(int n) {\n"
+                    + "    int i;\n"
+                    + "    i = 0;\n"
+                    + "    while (true) {\n"
+                    + "        if (i == n) {\n"
+                    + "            return i;\n"
+                    + "        }\n"
+                    + "        i = i + 1;\n"
+                    + "    }\n"
+                    + "    return 0;\n"
+                    + "}\n"
+                    + "int main() {\n"
+                    + "    print count(" + trips + ");\n"
+                    + "    return 0;\n"
+                    + "}\n", Integer.toString(trips) },
+        };
+
+        int failed = 0;
+        for (String[] c : checks) {
+            String printed = run(Semantics.checked(c[1]));
+            boolean ok = printed.equals(c[2]);
+            System.out.println((ok ? "ok   " : "FAIL ") + c[0] + " : " + printed);
+            if (!ok) failed++;
+        }
+
+        System.out.println("[ " + (checks.length - failed) + " of " + checks.length + " print their count ]");
+        if (failed > 0) System.exit(1);
+    }
+
+    // what prog prints when run on a thread with a STACK stack, or the
+    // error it ends with
+    private static String run(Program prog) throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String[] error = { null };
+
+        Thread t = new Thread(null, () -> {
+            PrintStream stdout = System.out;
+            System.setOut(new PrintStream(out, true));
+            try {
+                prog.M();
+            } catch (StackOverflowError e) {
+                error[0] = "stack overflow";
+            } catch (Exception e) {
+                error[0] = e.getMessage();
+            } finally {
+                System.setOut(stdout);
+            }
+        }, "LoopCheck", STACK);
+        t.start();
+        t.join();
+
+        return error[0] != null ? error[0] : out.toString().trim();
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.*;
+import java.nio.file.*;
+
+public class Native {
+    // Builds a Program into an executable : CBackend writes the C, and
+    // the system C compiler, $CC or else cc from the PATH, compiles it.
+    // The executable prints what the interpreter prints after
+    // [ Program Meaning ] and exits with status 1 on a runtime error.
+
+    // strict IEEE single precision, as in Java
+    private static final String[] FLAGS = { "-std=c99", "-O2", "-ffp-contract=off" };
+
+    // the C compiler, or null when there is none
+    static String compiler() {
+        String cc = System.getenv("CC");
+        if (cc != null && !cc.isEmpty()) return cc;
+
+        String path = System.getenv("PATH");
+        if (path == null) return null;
+
+        for (String dir : path.split(File.pathSeparator)) {
+            if (Files.isExecutable(Paths.get(dir, "cc"))) return "cc";
+        }
+        return null;
+    }
+
+    static void emit(Program prog, String file) throws IOException {
+        Files.write(Paths.get(file), CBackend.translate(prog).getBytes("UTF-8"));
+    }
+
+    // compiles prog into executable, throwing with the compiler's output
+    // if it fails
+    static void build(Program prog, String executable) throws IOException, InterruptedException {
+        String cc = compiler();
+        if (cc == null) throw new IllegalStateException("no C compiler : set CC or put cc on the PATH");
+
+        Path dir = Files.createTempDirectory("clite");
+        Path source = dir.resolve("program.c");
+
+        try {
+            emit(prog, source.toString());
+
+            String[] command = new String[FLAGS.length + 5];
+            command[0] = cc;
+            System.arraycopy(FLAGS, 0, command, 1, FLAGS.length);
+            command[FLAGS.length + 1] = "-o";
+            command[FLAGS.length + 2] = executable;
+            command[FLAGS.length + 3] = source.toString();
+            command[FLAGS.length + 4] = "-lm";
+
+            Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output = new String(p.getInputStream().readAllBytes(), "UTF-8");
+            if (p.waitFor() != 0) throw new IllegalStateException("cc failed :\n" + output);
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // a fresh executable for prog, deleted when the JVM exits
+    static String build(Program prog) throws IOException, InterruptedException {
+        File exe = File.createTempFile("clite", ".out");
+        exe.deleteOnExit();
+        build(prog, exe.getPath());
+        return exe.getPath();
+    }
+
+    // runs executable on this process's streams, returning its exit status
+    static int run(String executable) throws IOException, InterruptedException {
+        System.out.flush();
+        return new ProcessBuilder(executable).inheritIO().start().waitFor();
+    }
+}
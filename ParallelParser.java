@@ -0,0 +1,115 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ParallelParser {
+    // Parses a program on a ForkJoinPool. A pre-scan of the source finds
+    // where each top-level declaration and function ends, by matching
+    // braces; runs of them are parts, each lexed and parsed by its own
+    // Lexer and Parser over the one buffer, and the parts' globals and
+    // functions are joined in source order. If a part has an error, or
+    // stops before its end, the program is parsed again by one Parser,
+    // so the result and any message are what Parser gives.
+
+    // parts per thread, so that one slow part does not hold up the rest
+    private static final int PARTS = 4;
+
+    public static Program program(String file, int threads) {
+        Lexer lexer = new Lexer(file);
+        char[] source = lexer.source();
+        int[] cuts = cuts(source, lexer.size(), threads * PARTS);
+
+        if (threads <= 1 || cuts == null)
+            return new Parser(lexer).program();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<Program>> parts = new ArrayList<>();
+            for (int i = 0; i + 1 < cuts.length; i++) {
+                int from = cuts[i], to = cuts[i + 1];
+                parts.add(pool.submit(() -> part(source, from, to)));
+            }
+
+            Declarations globals = new Declarations();
+            Functions functions = new Functions();
+            for (Future<Program> f : parts) {
+                Program p = f.get();
+                if (p == null)
+                    return new Parser(lexer).program();
+                globals.addAll(p.globals);
+                functions.addAll(p.functions);
+            }
+            return new Program(globals, functions);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // source[from .. to) parsed, or null if it does not parse to its end,
+    // for a ParseError or a literal out of range; any other exception is
+    // a bug and propagates. FrontEnd parses its items by it too
+    static Program part(char[] source, int from, int to) {
+        Parser parser = new Parser(new Lexer(source, from, to));
+        parser.part = true;
+        try {
+            Program p = parser.program();
+            return parser.token == TokenType.Eof ? p : null;
+        } catch (ParseError | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Where to cut source[0 .. size) into about n parts : 0, size, and
+    // between them ends of top-level items. null if the braces do not
+    // match.
+    static int[] cuts(char[] source, int size, int n) {
+        int[] ends = ends(source, size);
+        if (ends == null) return null;
+
+        // each part from the first item end past its share of the source
+        int[] cuts = new int[n + 1];
+        int parts = 0;
+        for (int j = 0; j < ends.length && parts < n - 1; j++) {
+            if (ends[j] >= (long) size * (parts + 1) / n)
+                cuts[++parts] = ends[j];
+        }
+        cuts[++parts] = size;
+        return Arrays.copyOf(cuts, parts + 1);
+    }
+
+    // The ends of the top-level items in source[0 .. size), just past a
+    // ; or } at brace depth 0. Comments and char literals are skipped as
+    // Lexer skips them. null if the braces do not match.
+    static int[] ends(char[] source, int size) {
+        int[] ends = new int[64];
+        int count = 0, depth = 0;
+
+        for (int i = 0; i < size; i++) {
+            char c = source[i];
+            if (c == '/' && i + 1 < size && source[i + 1] == '/') {
+                while (i < size && source[i] != '\n') i++;
+            } else if (c == '\'') {
+                i += i + 1 < size && source[i + 1] == '\\' ? 3 : 2;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' || c == ';') {
+                if (c == '}' && --depth < 0) return null;
+                if (depth == 0) {
+                    if (count == ends.length) ends = Arrays.copyOf(ends, count * 2);
+                    ends[count++] = i + 1;
+                }
+            }
+        }
+        if (depth != 0) return null;
+        return Arrays.copyOf(ends, count);
+    }
+}
+
+class ParseError extends RuntimeException {
+    // thrown by the Lexer and Parser of a part with the message they
+    // would print, and no stack trace
+    private static final long serialVersionUID = 1L;
+
+    ParseError(String message) { super(message, null, false, false); }
+}
@@ -0,0 +1,53 @@
+import java.io.*;
+
+public class ParseBench {
+    // Scaling benchmark for ParallelParser :
+    //     java ParseBench [file.cl] [runs]
+    // Parses the file, by default a generated one of about a million
+    // tokens, with 1, 2, 4 and 8 threads, runs times over each (10 by
+    // default), and reports the best time and the speedup over one
+    // thread. Each parse is checked to display as Parser's does.
+
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : LexerBench.file(LexerBench.generate(1000000));
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        String expected = display(new Parser(new Lexer(file)).program());
+        long one = 0;
+
+        for (int threads : THREADS) {
+            long best = Long.MAX_VALUE;
+            Program prog = null;
+
+            for (int r = 0; r < runs; r++) {
+                long start = System.nanoTime();
+                prog = ParallelParser.program(file, threads);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            if (!display(prog).equals(expected)) {
+                System.out.println("[ " + threads + " threads : differs from Parser ]");
+                System.exit(1);
+            }
+            if (threads == 1) one = best;
+            System.out.println("[ " + threads + " threads : best " + best / 1000000 + " ms, "
+                    + String.format("%.2f", (double) one / best) + "x ]");
+        }
+        System.out.println("[ " + Runtime.getRuntime().availableProcessors() + " processors ]");
+    }
+
+    // what prog.display() prints
+    private static String display(Program prog) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        try {
+            System.setOut(new PrintStream(out));
+            prog.display();
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+}
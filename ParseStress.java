@@ -0,0 +1,84 @@
+import java.util.*;
+
+public class ParseStress {
+    // Stress test of Parser.expression() :
+    //     java ParseStress [operands]
+    // Parses programs whose one expression has operands operands
+    // (100000 by default) : a chain of ||, of &&, of + and one mixing
+    // every level, on the default stack. Checks that each tree has all
+    // its operands and groups as before, || and && to the right and
+    // + to the left, and reports the time. Exits 1 on a failure.
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int failed = 0;
+
+        failed += check("||", chain("b", " || ", n), n, "||", false, n - 1);
+        failed += check("&&", chain("b", " && ", n), n, "&&", false, n - 1);
+        failed += check("+", chain("i", " + ", n), n, "+", true, n - 1);
+        // five operands a clause : ((i * 2) + 1 < i) == b, joined by &&
+        failed += check("mixed", chain("i * 2 + 1 < i == b", " && ", n / 5), n / 5 * 5, "&&", false, n / 5 - 1);
+
+        if (failed > 0) System.exit(1);
+    }
+
+    private static String chain(String operand, String op, int n) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) b.append(op);
+            b.append(operand);
+        }
+        return b.toString();
+    }
+
+    // 1 unless x = e parses to a tree of operands leaves, down whose left
+    // side, if left, else right, run spine op Binarys
+    private static int check(String name, String e, int operands, String op, boolean left, int spine) {
+        String source = "bool b;\nint i;\nbool x;\nint main() {\n    x = " + e + ";\n    return 0;\n}\n";
+
+        long start = System.nanoTime();
+        Program prog;
+        try {
+            prog = Semantics.parse(source);
+        } catch (StackOverflowError s) {
+            System.out.println("[ " + name + " : stack overflow ]");
+            return 1;
+        }
+        long t = System.nanoTime() - start;
+
+        Block body = prog.functions.get(0).body;
+        Expression root = ((Assignment) body.members.get(0)).source;
+        int leaves = leaves(root), run = spine(root, op, left);
+        boolean ok = leaves == operands && run == spine;
+
+        System.out.println("[ " + name + " : " + operands + " operands, " + t / 1000000 + " ms, "
+                + (ok ? "ok" : "wrong tree : " + leaves + " operands, spine of " + run) + " ]");
+        return ok ? 0 : 1;
+    }
+
+    // operands under e, counted without recursion
+    private static int leaves(Expression e) {
+        ArrayDeque<Expression> todo = new ArrayDeque<>();
+        todo.push(e);
+        int n = 0;
+        while (!todo.isEmpty()) {
+            Expression x = todo.pop();
+            if (x instanceof Binary) {
+                todo.push(((Binary) x).term1);
+                todo.push(((Binary) x).term2);
+            }
+            else n++;
+        }
+        return n;
+    }
+
+    // how many op Binarys follow each other down one side from e
+    private static int spine(Expression e, String op, boolean left) {
+        int n = 0;
+        while (e instanceof Binary && ((Binary) e).op.val.equals(op)) {
+            n++;
+            e = left ? ((Binary) e).term1 : ((Binary) e).term2;
+        }
+        return n;
+    }
+}
@@ -6,32 +6,84 @@ public class Parser {
     // a concrete syntax grammar rule, which appears as a comment
     // at the beginning of the method.
   
-    Token token;          // current token from the input stream
-    Lexer lexer;
+    Tokens tokens;        // the input stream
+    TokenType token;      // type of the current token
+    boolean part;         // parsing a part of a source : errors throw ParseError
+
+    // binary operators by TokenType ordinal : how tightly each binds,
+    // 0 for none, and by level how a run of one level groups
+    private static final int[] LEVEL = new int[TokenType.values().length];
+    private static final int LEFT = 0, RIGHT = 1, NONE = 2;
+    private static final int[] ASSOC = { 0, RIGHT, RIGHT, NONE, NONE, LEFT, LEFT };
+
+    static {
+        LEVEL[TokenType.Or.ordinal()] = 1;
+        LEVEL[TokenType.And.ordinal()] = 2;
+        LEVEL[TokenType.Equals.ordinal()] = 3;
+        LEVEL[TokenType.NotEqual.ordinal()] = 3;
+        LEVEL[TokenType.Less.ordinal()] = 4;
+        LEVEL[TokenType.LessEqual.ordinal()] = 4;
+        LEVEL[TokenType.Greater.ordinal()] = 4;
+        LEVEL[TokenType.GreaterEqual.ordinal()] = 4;
+        LEVEL[TokenType.Plus.ordinal()] = 5;
+        LEVEL[TokenType.Minus.ordinal()] = 5;
+        LEVEL[TokenType.Multiply.ordinal()] = 6;
+        LEVEL[TokenType.Divide.ordinal()] = 6;
+        LEVEL[TokenType.Remain.ordinal()] = 6;
+    }
+
+    // literal Values by type and value, for constant()
+    private final HashMap<Long, Value> constants = new HashMap<>();
+
+    // expression()'s stacks, shared by its nested calls
+    private Expression[] terms = new Expression[16];
+    private int operands = 0;
+    private Operator[] ops = new Operator[16];
+    private int[] levels = new int[16];
+    private int operators = 0;
   
     public Parser(Lexer ts) { // Open the C++Lite source program
-        lexer = ts;                          // as a token stream, and
-        token = lexer.next();            // retrieve its first Token
+        this(new Tokens(ts));                // as a token stream
+    }
+
+    public Parser(Tokens ts) {
+        tokens = ts;
+        token = tokens.type(0);          // retrieve its first Token
+    }
+
+    private void advance () {
+        token = tokens.advance();
+    }
+
+    private TokenType peek (int k) { // type of the token k after the current one
+        return tokens.type(k);
     }
   
     private String match (TokenType t) { // * return the string of a token if it matches with t *
-        String value = token.value();
-        if (token.type().equals(t))
-            token = lexer.next();
-        else
+        if (!token.equals(t))
             error(t);
+        String value = tokens.value();
+        advance();
         return value;
     }
 
+    private Variable variable () { // an Identifier, as a Variable
+        if (!token.equals(TokenType.Identifier))
+            error(TokenType.Identifier);
+        Variable v = new Variable(tokens.symbols(), tokens.symbol());
+        advance();
+        return v;
+    }
+
     private void error(TokenType tok) {
-        System.err.println("Syntax error -> expecting: " + tok
-                           + "; saw: " + token);
-        System.exit(1);
+        error(tok.toString());
     }
   
     private void error(String tok) {
-        System.err.println("Syntax error -> expecting: " + tok
-                           + "; saw: " + token);
+        String message = "Syntax error -> expecting: " + tok
+                           + "; saw: " + tokens.token();
+        if (part) throw new ParseError(message);
+        System.err.println(message);
         System.exit(1);
     }
   
@@ -58,30 +110,27 @@ public class Parser {
         // student exercise
         Type t = type();
 
-        if (token.type().equals(TokenType.Main)) {
+        if (token.equals(TokenType.Main)) {
             match(TokenType.Main);
             function(fs, new Variable("main"), t);
             return;
         }
 
-        Variable v = new Variable(match(TokenType.Identifier));
+        // Type Identifier not followed by , or ; begins a function
+        if (!peek(1).equals(TokenType.Comma) && !peek(1).equals(TokenType.Semicolon)) {
+            function(fs, variable(), t);
+            return;
+        }
+
+        Variable v = variable();
         Declaration d = new Declaration(v, t);
         ds.add(d);
 
-        if (token.type().equals(TokenType.Comma)) {
-            while (token.type().equals(TokenType.Comma)) {
-                token = lexer.next();
-                v = new Variable(match(TokenType.Identifier));
-                d = new Declaration(v, t);
-                ds.add(d);
-            }
-        }
-        else {
-            if (!token.type().equals(TokenType.Semicolon)) {
-                ds.remove(ds.size() - 1);
-                function(fs, v, t);
-                return;
-            }
+        while (token.equals(TokenType.Comma)) {
+            advance();
+            v = variable();
+            d = new Declaration(v, t);
+            ds.add(d);
         }
 
         match(TokenType.Semicolon);
@@ -97,12 +146,12 @@ public class Parser {
     private void function(Functions fs) {
         Type t = type();
         Variable v;
-        if (token.type().equals(TokenType.Main)) {
+        if (token.equals(TokenType.Main)) {
             match(TokenType.Main);
             v = new Variable("main");
         }
         else {
-            v = new Variable(match(TokenType.Identifier));
+            v = variable();
         }
         match(TokenType.LeftParen);
         Declarations params = params();
@@ -139,14 +188,14 @@ public class Parser {
 
     private void param(Declarations ds) {
         Type t = type();
-        Variable v = new Variable(match(TokenType.Identifier));
+        Variable v = variable();
         Declaration d = new Declaration(v, t);
         ds.add(d);
 
-        while (token.type().equals(TokenType.Comma)) {
-            token = lexer.next();
+        while (token.equals(TokenType.Comma)) {
+            advance();
             t = type();
-            v = new Variable(match(TokenType.Identifier));
+            v = variable();
             d = new Declaration(v, t);
             ds.add(d);
         }
@@ -162,13 +211,13 @@ public class Parser {
 
     private void local(Declarations ds) {
         Type t = type();
-        Variable v = new Variable(match(TokenType.Identifier));
+        Variable v = variable();
         Declaration d = new Declaration(v, t);
         ds.add(d);
 
-        while (token.type().equals(TokenType.Comma)) {
-            token = lexer.next();
-            v = new Variable(match(TokenType.Identifier));
+        while (token.equals(TokenType.Comma)) {
+            advance();
+            v = variable();
             d = new Declaration(v, t);
             ds.add(d);
         }
@@ -181,19 +230,16 @@ public class Parser {
         Type t = null;
 
         // student exercise
-        if(token.type().equals(TokenType.Int))
-            t = Type.INT;
-        else if(token.type().equals(TokenType.Bool))
-            t= Type.BOOL;
-        else if(token.type().equals(TokenType.Float))
-            t= Type.FLOAT;
-        else if(token.type().equals(TokenType.Char))
-            t= Type.CHAR;
-        else if (token.type().equals(TokenType.Void))
-            t = Type.VOID;
-        else error("Type Error : " + token.type());
-
-        token = lexer.next();
+        switch (token) {
+        case Int:   t = Type.INT; break;
+        case Bool:  t = Type.BOOL; break;
+        case Float: t = Type.FLOAT; break;
+        case Char:  t = Type.CHAR; break;
+        case Void:  t = Type.VOID; break;
+        default:    error("Type Error : " + token);
+        }
+
+        advance();
 
         return t;
     }
@@ -204,27 +250,35 @@ public class Parser {
         Statement s = new Skip();
 
         // student exercise
-        if(token.type().equals(TokenType.LeftBrace))
+        switch (token) {
+        case LeftBrace:
             s = statements(fname);
-        else if(token.type().equals(TokenType.Identifier)) {
-            Variable v = new Variable(match(TokenType.Identifier));
+            break;
+        case Identifier:
+            Variable v = variable();
 
-            if (token.type().equals(TokenType.Assign)) {
+            if (token.equals(TokenType.Assign)) {
                 s = assignment(v);
-            } else if (token.type().equals(TokenType.LeftParen)) {
+            } else if (token.equals(TokenType.LeftParen)) {
                 s = callStatement(v);
             }
-        }
-        else if(token.type().equals(TokenType.If))
+            break;
+        case If:
             s = ifStatement(fname);
-        else if(token.type().equals(TokenType.While))
+            break;
+        case While:
             s = whileStatement(fname);
-        else if(token.type().equals(TokenType.Print))
+            break;
+        case Print:
             s = printStatement();
-        else if(token.type().equals(TokenType.Semicolon))
-            token = lexer.next();
-        else if (token.type().equals(TokenType.Return))
+            break;
+        case Semicolon:
+            advance();
+            break;
+        case Return:
             s = returnStatement(fname);
+            break;
+        }
 
         return s;
     }
@@ -232,37 +286,18 @@ public class Parser {
     private Block statements (Variable fname) {
         // Block --> '{' Statements '}'
         Block b = new Block();
+        boolean braces = token.equals(TokenType.LeftBrace);
 
-        if (token.type().equals(TokenType.LeftBrace)) {
+        if (braces)
             match(TokenType.LeftBrace);
 
-            while (token.type().equals(TokenType.Semicolon) ||
-                    token.type().equals(TokenType.LeftBrace) ||
-                    token.type().equals(TokenType.Identifier) ||
-                    token.type().equals(TokenType.If) ||
-                    token.type().equals(TokenType.While) ||
-                    token.type().equals(TokenType.Print) ||
-                    token.type().equals(TokenType.Return))
-            {
-                Statement s = statement(fname);
-                b.members.add(s);
-            }
+        while (isStatement()) {
+            Statement s = statement(fname);
+            b.members.add(s);
+        }
 
+        if (braces)
             match(TokenType.RightBrace);
-        }
-        else {
-            while (token.type().equals(TokenType.Semicolon) ||
-                    token.type().equals(TokenType.LeftBrace) ||
-                    token.type().equals(TokenType.Identifier) ||
-                    token.type().equals(TokenType.If) ||
-                    token.type().equals(TokenType.While) ||
-                    token.type().equals(TokenType.Print) ||
-                    token.type().equals(TokenType.Return))
-            {
-                Statement s = statement(fname);
-                b.members.add(s);
-            }
-        }
 
         return b;
     }
@@ -283,10 +318,10 @@ public class Parser {
         ArrayList<Expression> params = new ArrayList<>();
         match(TokenType.LeftParen);
 
-        while (!token.type().equals(TokenType.RightParen)) {
+        while (!token.equals(TokenType.RightParen)) {
             Expression e = expression();
             params.add(e);
-            if (token.type().equals(TokenType.Comma))
+            if (token.equals(TokenType.Comma))
                 match(TokenType.Comma);
         }
 
@@ -316,8 +351,8 @@ public class Parser {
 
         Conditional c;
 
-        if (token.type().equals(TokenType.Else)) { // match X
-            token = lexer.next();
+        if (token.equals(TokenType.Else)) { // match X
+            advance();
             Statement es = statement(fname);
             c = new Conditional(e, s, es);
         }
@@ -353,82 +388,62 @@ public class Parser {
 
     private Expression expression () {
         // Expression --> Conjunction { || Conjunction }
-        Expression c = conjunction();
-
-        while(token.type().equals(TokenType.Or)) {
-            Operator o = new Operator(match(token.type()));
-            Expression e = expression();
-            c = new Binary(o, c, e);
-        }
-
-        return c;  // student exercise
-    }
-  
-    private Expression conjunction () {
         // Conjunction --> Equality { && Equality }
-        Expression e = equality();
-
-        while (token.type().equals(TokenType.And)) {
-            Operator o = new Operator(match(token.type()));
-            Expression c = conjunction();
-            e = new Binary(o, e, c);
-        }
-
-        return e;  // student exercise
-    }
-  
-    private Expression equality () {
         // Equality --> Relation [ EquOp Relation ]
-        Expression r = relation();
-
-        if (isEqualityOp()) {
-            Operator o = new Operator(match(token.type()));
-            Expression r2 = relation();
-            r = new Binary(o, r, r2);
+        // Relation --> Addition [ RelOp Addition ]
+        // Addition --> Term { AddOp Term }
+        // Term --> Factor { MultiplyOp Factor }
+        // by precedence climbing over LEVEL : operators waiting for their
+        // right operand are kept on a stack, so there is no call per
+        // level and no recursion per operator
+        Expression e = factor();
+        int level = LEVEL[token.ordinal()];
+        if (level == 0) return e;
+
+        int base = operators;
+        push(e);
+        while (level != 0) {
+            // apply those waiting that bind tighter, or as tight from the left
+            while (operators > base && (levels[operators - 1] > level
+                    || levels[operators - 1] == level && ASSOC[level] == LEFT))
+                reduce();
+            // a second EquOp or RelOp at one level ends the expression
+            if (operators > base && levels[operators - 1] == level && ASSOC[level] == NONE)
+                break;
+
+            if (operators == ops.length) {
+                ops = Arrays.copyOf(ops, operators * 2);
+                levels = Arrays.copyOf(levels, operators * 2);
+            }
+            ops[operators] = new Operator(match(token));
+            levels[operators++] = level;
+            push(factor());
+            level = LEVEL[token.ordinal()];
         }
 
-        return r;  // student exercise
+        while (operators > base)
+            reduce();
+        return terms[--operands];
     }
 
-    private Expression relation (){
-        // Relation --> Addition [RelOp Addition]
-        Expression a = addition();
-
-        if (isRelationalOp()) {
-            Operator o = new Operator(match(token.type()));
-            Expression a2 = addition();
-            a = new Binary(o, a, a2);
-        }
-
-        return a;  // student exercise
+    private void push (Expression e) {
+        if (operands == terms.length)
+            terms = Arrays.copyOf(terms, operands * 2);
+        terms[operands++] = e;
     }
-  
-    private Expression addition () {
-        // Addition --> Term { AddOp Term }
-        Expression e = term();
-        while (isAddOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = term();
-            e = new Binary(op, e, term2);
-        }
-        return e;
-    }
-  
-    private Expression term () {
-        // Term --> Factor { MultiplyOp Factor }
-        Expression e = factor();
-        while (isMultiplyOp()) {
-            Operator op = new Operator(match(token.type()));
-            Expression term2 = factor();
-            e = new Binary(op, e, term2);
-        }
-        return e;
+
+    private void reduce () { // the top operator applied to the top two operands
+        Expression r = terms[--operands];
+        Expression l = terms[operands - 1];
+        terms[operands - 1] = new Binary(ops[--operators], l, r);
+        terms[operands] = null;
+        ops[operators] = null;
     }
-  
+
     private Expression factor() {
         // Factor --> [ UnaryOp ] Primary 
         if (isUnaryOp()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = new Operator(match(token));
             Expression term = primary();
             return new Unary(op, term);
         }
@@ -439,16 +454,17 @@ public class Parser {
         // Primary --> Identifier | Literal | ( Expression )
         //             | Type ( Expression )
         Expression e = null;
-        if (token.type().equals(TokenType.Identifier)) {
-            Variable v = new Variable(match(TokenType.Identifier));
+        switch (token) {
+        case Identifier:
+            Variable v = variable();
 
-            if (token.type().equals(TokenType.LeftParen)) {
+            if (token.equals(TokenType.LeftParen)) {
                 ArrayList<Expression> params = new ArrayList<>();
                 match(TokenType.LeftParen);
-                while (!token.type().equals(TokenType.RightParen)) {
+                while (!token.equals(TokenType.RightParen)) {
                     Expression p = expression();
                     params.add(p);
-                    if (token.type().equals(TokenType.Comma))
+                    if (token.equals(TokenType.Comma))
                         match(TokenType.Comma);
                 }
                 match(TokenType.RightParen);
@@ -457,95 +473,89 @@ public class Parser {
             else {
                 e = v;
             }
-        } else if (isLiteral()) {
+            break;
+        case IntLiteral: case True: case False: case FloatLiteral: case CharLiteral:
             e = literal();
-        } else if (token.type().equals(TokenType.LeftParen)) {
-            token = lexer.next();
+            break;
+        case LeftParen:
+            advance();
             e = expression();       
             match(TokenType.RightParen);
-        } else if (isType( )) {
-            Operator op = new Operator(match(token.type()));
+            break;
+        case Int: case Bool: case Float: case Char: case Void:
+            Operator op = new Operator(match(token));
             match(TokenType.LeftParen);
             Expression term = expression();
             match(TokenType.RightParen);
             e = new Unary(op, term);
-        } else error("Identifier | Literal | ( | Type");
+            break;
+        default:
+            error("Identifier | Literal | ( | Type");
+        }
         return e;
     }
 
     private Value literal( ) {
-        String s = token.value();
         Value v = null;
 
-        if (token.type().equals(TokenType.IntLiteral)) {
-            v = new IntValue(Integer.parseInt(s));
-        }
-        else if (token.type().equals(TokenType.FloatLiteral)) {
-            v = new FloatValue(Float.parseFloat(s));
-        }
-        else if (token.type().equals(TokenType.True)) {
-            v = new BoolValue(true);
-        }
-        else if (token.type().equals(TokenType.False)) {
-            v = new BoolValue(false);
-        }
-        else if (token.type().equals(TokenType.CharLiteral)) {
-            v = new CharValue(s.charAt(0));
-        }
-        else {
-            error("Literal error");
+        switch (token) {
+        case IntLiteral:
+            v = constant(token, tokens.exact() ? tokens.bits() : Integer.parseInt(tokens.value()));
+            break;
+        case FloatLiteral:
+            v = constant(token, tokens.exact() ? tokens.bits()
+                                               : Float.floatToIntBits(Float.parseFloat(tokens.value())));
+            break;
+        case True:         v = constant(token, 1); break;
+        case False:        v = constant(token, 0); break;
+        case CharLiteral:  v = constant(token, tokens.bits()); break;
+        default:           error("Literal error");
         }
 
-        token = lexer.next();
+        advance();
 
         return v;  // student exercise
     }
 
-    private boolean isAddOp( ) {
-        return token.type().equals(TokenType.Plus) ||
-               token.type().equals(TokenType.Minus);
+    // the one Value for literal t of value bits, which every occurrence
+    // of the literal shares. It is never owned, so Assignment never
+    // updates it in place : a variable it is assigned to gets a new Value
+    // on its next assignment
+    private Value constant (TokenType t, int bits) {
+        Long key = (long) t.ordinal() << 32 | bits & 0xffffffffL;
+        Value v = constants.get(key);
+        if (v == null) {
+            switch (t) {
+            case IntLiteral:   v = new IntValue(bits); break;
+            case FloatLiteral: v = new FloatValue(Float.intBitsToFloat(bits)); break;
+            case CharLiteral:  v = new CharValue((char) bits); break;
+            default:           v = new BoolValue(bits != 0);
+            }
+            constants.put(key, v);
+        }
+        return v;
     }
-    
-    private boolean isMultiplyOp( ) {
-        return token.type().equals(TokenType.Multiply) ||
-               token.type().equals(TokenType.Divide) ||
-               token.type().equals(TokenType.Remain);
+
+    private boolean isStatement( ) {
+        return token.equals(TokenType.Semicolon) ||
+            token.equals(TokenType.LeftBrace) ||
+            token.equals(TokenType.Identifier) ||
+            token.equals(TokenType.If) ||
+            token.equals(TokenType.While) ||
+            token.equals(TokenType.Print) ||
+            token.equals(TokenType.Return);
     }
-    
+
     private boolean isUnaryOp( ) {
-        return token.type().equals(TokenType.Not) ||
-               token.type().equals(TokenType.Minus);
-    }
-    
-    private boolean isEqualityOp( ) {
-        return token.type().equals(TokenType.Equals) ||
-            token.type().equals(TokenType.NotEqual);
-    }
-    
-    private boolean isRelationalOp( ) {
-        return token.type().equals(TokenType.Less) ||
-               token.type().equals(TokenType.LessEqual) || 
-               token.type().equals(TokenType.Greater) ||
-               token.type().equals(TokenType.GreaterEqual);
+        return token.equals(TokenType.Not) ||
+               token.equals(TokenType.Minus);
     }
     
     private boolean isType( ) {
-        return token.type().equals(TokenType.Int)
-            || token.type().equals(TokenType.Bool) 
-            || token.type().equals(TokenType.Float)
-            || token.type().equals(TokenType.Char)
-            || token.type().equals(TokenType.Void);
-    }
-    
-    private boolean isLiteral( ) {
-        return token.type().equals(TokenType.IntLiteral) ||
-            isBooleanLiteral() ||
-            token.type().equals(TokenType.FloatLiteral) ||
-            token.type().equals(TokenType.CharLiteral);
-    }
-    
-    private boolean isBooleanLiteral( ) {
-        return token.type().equals(TokenType.True) ||
-            token.type().equals(TokenType.False);
+        return token.equals(TokenType.Int)
+            || token.equals(TokenType.Bool) 
+            || token.equals(TokenType.Float)
+            || token.equals(TokenType.Char)
+            || token.equals(TokenType.Void);
     }
 } // Parser
@@ -0,0 +1,57 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+
+public class ParserBench {
+    // Parser microbenchmark :
+    //     java ParserBench [file.cl] [runs]
+    // Parses the file, by default a generated one of about a million
+    // tokens, from memory runs times over (30 by default), and lexes it
+    // as many times into the same token stream alone. Reports the time of
+    // each run and the best of each, and the difference as the time of
+    // parsing net of lexing, in ms and tokens per second.
+
+    public static void main(String[] args) throws IOException {
+        String source = args.length > 0
+                ? new String(Files.readAllBytes(Paths.get(args[0])), Charset.defaultCharset())
+                : LexerBench.generate(1000000);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        char[] text = Lexer.lines(source.toCharArray(), source.length());
+
+        long lexing = Long.MAX_VALUE, parsing = Long.MAX_VALUE;
+        int tokens = 0, functions = 0;
+
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            tokens = lex(text);
+            long l = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            functions = parse(text).functions.size();
+            long p = System.nanoTime() - start;
+
+            lexing = Math.min(lexing, l);
+            parsing = Math.min(parsing, p);
+            System.out.println("[ run " + (r + 1) + " : lex " + l / 1000000 + " ms, lex and parse "
+                    + p / 1000000 + " ms ]");
+        }
+
+        long net = Math.max(parsing - lexing, 1);
+        System.out.println("[ " + tokens + " tokens, " + functions + " functions, best lex "
+                + lexing / 1000000 + " ms, best lex and parse " + parsing / 1000000 + " ms ]");
+        System.out.println("[ parsing net of lexing " + net / 1000000 + " ms, "
+                + (long) (tokens / (net / 1e9)) + " tokens/s ]");
+    }
+
+    // the tokens of text, read through Tokens as Parser reads them
+    private static int lex(char[] text) {
+        Tokens tokens = new Tokens(new Lexer(text, 0, text.length));
+        int n = 0;
+        for (TokenType t = tokens.type(0); t != TokenType.Eof; t = tokens.advance()) n++;
+        return n;
+    }
+
+    private static Program parse(char[] text) {
+        return new Parser(new Lexer(text, 0, text.length)).program();
+    }
+}
@@ -0,0 +1,453 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+public class ProgramCache {
+    // Transformed Programs on disk, so that a run of an unchanged source
+    // skips lexing, parsing and VT. An entry is named by the SHA-256 of
+    // BUILD and the source, and holds what the front end printed and the
+    // AST in a compact binary form :
+    //
+    //     magic  digest[32]  length  crc  payload[length]
+    //
+    // It is read whole by one read; one with a bad header, digest or CRC
+    // is deleted, and the program built and stored again. Slots are not
+    // stored, since resolve binds them on load.
+
+    // The SHA-256 of the interpreter's class files, so that a build that
+    // changes the payload layout or what T produces keys new entries;
+    // null if they cannot be read, and then nothing is cached.
+    private static final byte[] BUILD = build();
+    private static final int MAGIC = 0x434c4341;    // "CLCA"
+
+    private static final Type[] TYPES = { Type.INT, Type.BOOL, Type.CHAR, Type.FLOAT, Type.VOID };
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    // node tags
+    private static final int SKIP = 0, BLOCK = 1, ASSIGN = 2, IF = 3, IF_ELSE = 4, LOOP = 5,
+            PRINT = 6, CALL = 7, RETURN = 8;
+    private static final int VAR = 16, INT = 17, BOOL = 18, CHAR = 19, FLOAT = 20, UNDEF = 21,
+            BINARY = 22, UNARY = 23, FUNCALL = 24;
+
+    private final Path dir;
+
+    ProgramCache(String dir) {
+        this.dir = Paths.get(dir);
+    }
+
+    // The resolved program stored for source, after printing what the
+    // front end printed for it; null if there is no good entry.
+    Program get(byte[] source) {
+        if (BUILD == null) return null;
+        byte[] digest = digest(source);
+        Path entry = dir.resolve(name(digest));
+        if (!Files.exists(entry)) return null;
+
+        Program prog;
+        String printed;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(entry));
+            byte[] stored = new byte[digest.length];
+            if (in.getInt() != MAGIC) throw new IOException("stale");
+            in.get(stored);
+            if (!Arrays.equals(stored, digest)) throw new IOException("stale");
+
+            int length = in.getInt();
+            int crc = in.getInt();
+            if (length != in.remaining() || crc != crc(in.array(), in.position(), length)) throw new IOException("corrupt");
+
+            Reader r = new Reader(in);
+            printed = r.string();
+            prog = r.program();
+            if (in.hasRemaining()) throw new IOException("corrupt");
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException ignored) { }
+            return null;
+        }
+
+        System.out.print(printed);
+        prog.resolve();
+        return prog;
+    }
+
+    // stores prog, transformed, for source, with what the front end
+    // printed for it; a cache that cannot be written is left as it is
+    void put(byte[] source, String printed, Program prog) {
+        if (BUILD == null) return;
+        byte[] digest = digest(source);
+
+        Writer w = new Writer();
+        w.string(printed);
+        w.program(prog);
+        byte[] payload = w.toByteArray();
+
+        ByteBuffer out = ByteBuffer.allocate(12 + digest.length + payload.length);
+        out.putInt(MAGIC).put(digest);
+        out.putInt(payload.length).putInt(crc(payload, 0, payload.length)).put(payload);
+
+        Path temp = null;
+        try {
+            Files.createDirectories(dir);
+            // written aside and moved, so a reader never sees half an entry
+            temp = Files.createTempFile(dir, "entry", ".tmp");
+            Files.write(temp, out.array());
+            Files.move(temp, dir.resolve(name(digest)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    private static byte[] digest(byte[] source) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(BUILD);
+            return md.digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The classes are read where ProgramCache was loaded from : the
+    // .class files of its directory, by name, or its jar.
+    private static byte[] build() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            Path from = Paths.get(ProgramCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+            if (Files.isDirectory(from)) {
+                List<Path> classes = new ArrayList<>();
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(from, "*.class")) {
+                    for (Path p : ds) classes.add(p);
+                }
+                Collections.sort(classes);
+                for (Path p : classes) {
+                    md.update(p.getFileName().toString().getBytes("UTF-8"));
+                    md.update(Files.readAllBytes(p));
+                }
+            }
+            else {
+                md.update(Files.readAllBytes(from));
+            }
+            return md.digest();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String name(byte[] digest) {
+        StringBuilder b = new StringBuilder();
+        for (byte d : digest) b.append(String.format("%02x", d));
+        return b.append(".clc").toString();
+    }
+
+    private static int crc(byte[] b, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(b, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int type(Type t) {
+        for (int i = 0; i < TYPES.length; i++)
+            if (TYPES[i] == t) return i;
+        throw new IllegalArgumentException("Illegal type in ProgramCache : " + t);
+    }
+
+    // Writes the payload. Counts, indexes and ints are varints; a name is
+    // its index in the names written so far, followed by the name itself
+    // the first time.
+    private static class Writer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final HashMap<String, Integer> names = new HashMap<>();
+
+        byte[] toByteArray() { return bytes.toByteArray(); }
+
+        void program(Program p) {
+            declarations(p.globals);
+            count(p.functions.size());
+            for (Function f : p.functions) {
+                name(f.name.toString());
+                count(type(f.type));
+                declarations(f.params);
+                declarations(f.locals);
+                statement(f.body);
+            }
+        }
+
+        void declarations(Declarations ds) {
+            count(ds.size());
+            for (Declaration d : ds) {
+                name(d.v.toString());
+                count(type(d.t));
+            }
+        }
+
+        void statement(Statement s) {
+            if (s instanceof Skip) {
+                count(SKIP);
+            } else if (s instanceof Block) {
+                Block b = (Block) s;
+                count(BLOCK);
+                count(b.members.size());
+                for (Statement m : b.members) statement(m);
+            } else if (s instanceof Assignment) {
+                Assignment a = (Assignment) s;
+                count(ASSIGN);
+                name(a.target.toString());
+                expression(a.source);
+            } else if (s instanceof Conditional) {
+                Conditional c = (Conditional) s;
+                count(c.elsebranch == null ? IF : IF_ELSE);
+                expression(c.test);
+                statement(c.thenbranch);
+                if (c.elsebranch != null) statement(c.elsebranch);
+            } else if (s instanceof Loop) {
+                Loop l = (Loop) s;
+                count(LOOP);
+                expression(l.test);
+                statement(l.body);
+            } else if (s instanceof Print) {
+                count(PRINT);
+                expression(((Print) s).expression);
+            } else if (s instanceof StatementCall) {
+                StatementCall c = (StatementCall) s;
+                count(CALL);
+                name(c.name.toString());
+                expressions(c.params);
+            } else if (s instanceof Return) {
+                Return r = (Return) s;
+                count(RETURN);
+                name(r.name.toString());
+                expression(r.result);
+            } else {
+                throw new IllegalArgumentException("Illegal statement in ProgramCache : " + s);
+            }
+        }
+
+        void expression(Expression e) {
+            if (e instanceof Variable) {
+                count(VAR);
+                name(e.toString());
+            } else if (e instanceof Value && ((Value) e).isUndef()) {
+                count(UNDEF);
+                count(type(((Value) e).type()));
+            } else if (e instanceof IntValue) {
+                count(INT);
+                count(((IntValue) e).intValue());
+            } else if (e instanceof BoolValue) {
+                count(BOOL);
+                count(((BoolValue) e).boolValue() ? 1 : 0);
+            } else if (e instanceof CharValue) {
+                count(CHAR);
+                count(((CharValue) e).charValue());
+            } else if (e instanceof FloatValue) {
+                count(FLOAT);
+                count(Float.floatToRawIntBits(((FloatValue) e).floatValue()));
+            } else if (e instanceof Binary) {
+                Binary b = (Binary) e;
+                count(BINARY);
+                operator(b.op);
+                expression(b.term1);
+                expression(b.term2);
+            } else if (e instanceof Unary) {
+                Unary u = (Unary) e;
+                count(UNARY);
+                operator(u.op);
+                expression(u.term);
+            } else if (e instanceof ExpressionCall) {
+                ExpressionCall c = (ExpressionCall) e;
+                count(FUNCALL);
+                name(c.name.toString());
+                expressions(c.params);
+            } else {
+                throw new IllegalArgumentException("Illegal expression in ProgramCache : " + e);
+            }
+        }
+
+        void expressions(ArrayList<Expression> es) {
+            count(es.size());
+            for (Expression e : es) expression(e);
+        }
+
+        // its opcode + 1, or 0 and its name when untyped
+        void operator(Operator op) {
+            count(op.code == null ? 0 : op.code.ordinal() + 1);
+            if (op.code == null) name(op.val);
+        }
+
+        void name(String s) {
+            Integer n = names.get(s);
+            if (n != null) {
+                count(n);
+                return;
+            }
+            count(names.size());
+            names.put(s, names.size());
+            string(s);
+        }
+
+        void string(String s) {
+            byte[] b = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            count(b.length);
+            bytes.write(b, 0, b.length);
+        }
+
+        // a varint : 7 bits a byte, low first, the high bit set on all but the last
+        void count(int v) {
+            while ((v & ~0x7f) != 0) {
+                bytes.write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            bytes.write(v);
+        }
+    }
+
+    // Reads what Writer writes; throws on anything it would not write.
+    private static class Reader {
+        private final ByteBuffer in;
+        private final ArrayList<String> names = new ArrayList<>();
+
+        Reader(ByteBuffer in) { this.in = in; }
+
+        Program program() {
+            Declarations globals = declarations();
+            Functions fs = new Functions();
+            for (int n = count(); n > 0; n--) {
+                Variable name = new Variable(name());
+                Type t = TYPES[count()];
+                Declarations params = declarations();
+                Declarations locals = declarations();
+                fs.add(new Function(name, t, params, locals, (Block) statement()));
+            }
+            return new Program(globals, fs);
+        }
+
+        Declarations declarations() {
+            Declarations ds = new Declarations();
+            for (int n = count(); n > 0; n--) {
+                Variable v = new Variable(name());
+                ds.add(new Declaration(v, TYPES[count()]));
+            }
+            return ds;
+        }
+
+        Statement statement() {
+            switch (count()) {
+                case SKIP:
+                    return new Skip();
+                case BLOCK: {
+                    Block b = new Block();
+                    for (int n = count(); n > 0; n--) b.members.add(statement());
+                    return b;
+                }
+                case ASSIGN: {
+                    Variable target = new Variable(name());
+                    return new Assignment(target, expression());
+                }
+                case IF: {
+                    Expression test = expression();
+                    return new Conditional(test, statement());
+                }
+                case IF_ELSE: {
+                    Expression test = expression();
+                    Statement tp = statement();
+                    return new Conditional(test, tp, statement());
+                }
+                case LOOP: {
+                    Expression test = expression();
+                    return new Loop(test, statement());
+                }
+                case PRINT:
+                    return new Print(expression());
+                case CALL: {
+                    Variable name = new Variable(name());
+                    return new StatementCall(name, expressions());
+                }
+                case RETURN: {
+                    Variable name = new Variable(name());
+                    return new Return(name, expression());
+                }
+                default:
+                    throw new IllegalArgumentException("bad statement tag");
+            }
+        }
+
+        Expression expression() {
+            switch (count()) {
+                case VAR:
+                    return new Variable(name());
+                case UNDEF:
+                    return Value.mkValue(TYPES[count()]);
+                case INT:
+                    return new IntValue(count());
+                case BOOL:
+                    return new BoolValue(count() != 0);
+                case CHAR:
+                    return new CharValue((char) count());
+                case FLOAT:
+                    return new FloatValue(Float.intBitsToFloat(count()));
+                case BINARY: {
+                    Operator op = operator();
+                    Expression term1 = expression();
+                    return new Binary(op, term1, expression());
+                }
+                case UNARY: {
+                    Operator op = operator();
+                    return new Unary(op, expression());
+                }
+                case FUNCALL: {
+                    Variable name = new Variable(name());
+                    return new ExpressionCall(name, expressions());
+                }
+                default:
+                    throw new IllegalArgumentException("bad expression tag");
+            }
+        }
+
+        ArrayList<Expression> expressions() {
+            ArrayList<Expression> es = new ArrayList<>();
+            for (int n = count(); n > 0; n--) es.add(expression());
+            return es;
+        }
+
+        Operator operator() {
+            int code = count();
+            return code == 0 ? new Operator(name()) : new Operator(OPCODES[code - 1]);
+        }
+
+        String name() {
+            int n = count();
+            if (n < names.size()) return names.get(n);
+            if (n != names.size()) throw new IllegalArgumentException("bad name");
+            String s = string();
+            names.add(s);
+            return s;
+        }
+
+        String string() {
+            int length = count();
+            String s = new String(in.array(), in.position(), length, java.nio.charset.StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return s;
+        }
+
+        int count() {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                v |= (b & 0x7f) << shift;
+                if (b >= 0) return v;
+                if (shift > 28) throw new IllegalArgumentException("bad varint");
+            }
+        }
+    }
+}
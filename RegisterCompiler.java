@@ -0,0 +1,331 @@
+import java.util.*;
+
+public class RegisterCompiler {
+    // Compiles the typed, resolved AST into Registers. Locals are used in
+    // place as registers, so `i = i + 1` is one instruction writing slot i,
+    // and the idioms listed in Registers become single superinstructions.
+    //
+    // Each function is compiled twice : the first pass only counts its
+    // constants, which fixes where its temporaries begin.
+
+    private int[] code = new int[256];
+    private int pc = 0;
+
+    private ArrayList<String> strings = new ArrayList<>();
+    private IdentityHashMap<Function, Integer> index = new IdentityHashMap<>();
+
+    private TypeMap tm;             // types visible in the current function
+    private ArrayList<Long> constants;
+    private HashMap<Long, Integer> constantIndex;
+    private int slots;              // params + locals
+    private int next;               // next free temporary
+    private int top;                // highest register used + 1
+
+    public static Registers compile(Program prog) {
+        return new RegisterCompiler().program(prog);
+    }
+
+    private Registers program(Program prog) {
+        Functions fs = prog.functions;
+        int n = fs.size();
+        String[] names = new String[n];
+        int[] entry = new int[n];
+        int[] params = new int[n];
+        long[][] frame = new long[n][];
+        int main = -1;
+
+        for (int i = 0; i < n; i++) {
+            index.put(fs.get(i), i);
+        }
+
+        TypeMap gm = TypeChecker.typing(prog.globals);
+
+        for (int i = 0; i < n; i++) {
+            Function f = fs.get(i);
+
+            tm = new TypeMap();
+            tm.putAll(gm);
+            tm.putAll(TypeChecker.typing(f.params));
+            tm.putAll(TypeChecker.typing(f.locals));
+            slots = f.params.size() + f.locals.size();
+
+            // pass 1 : count constants
+            int start = pc;
+            int strs = strings.size();
+            function(f, slots);
+            pc = start;
+            while (strings.size() > strs) strings.remove(strings.size() - 1);
+
+            // pass 2 : temporaries follow the constants
+            function(f, slots + constants.size());
+
+            names[i] = f.name.toString();
+            entry[i] = start;
+            params[i] = f.params.size();
+            frame[i] = new long[Math.max(top, slots + constants.size())];
+            Arrays.fill(frame[i], 0, slots, Bytecode.UNDEF);
+            for (int k = 0; k < constants.size(); k++) {
+                frame[i][slots + k] = constants.get(k);
+            }
+
+            if (f.name.equals(new Variable("main"))) {
+                main = i;
+            }
+        }
+
+        return new Registers(Arrays.copyOf(code, pc), strings.toArray(new String[0]),
+                names, entry, params, frame, prog.globals, main);
+    }
+
+    private void function(Function f, int tempBase) {
+        constants = new ArrayList<>();
+        constantIndex = new HashMap<>();
+        next = tempBase;
+        top = tempBase;
+
+        statement(f.body);
+        emit(Registers.RETDEF, 0, 0, 0);
+    }
+
+    private void statement(Statement s) {
+        int mark = next;
+
+        if (s instanceof Skip) {
+            return;
+        }
+        else if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) {
+                statement(m);
+            }
+        }
+        else if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+
+            if (a.target.isGlobal()) {
+                emit(Registers.GSET, a.target.slot(), expression(a.source, -1), 0);
+            }
+            else if (!increment(a)) {
+                expression(a.source, a.target.slot());
+            }
+        }
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            int jumpElse = branchIfFalse(c.test);
+            statement(c.thenbranch);
+
+            if (c.elsebranch != null) {
+                emit(Registers.JMP, 0, 0, 0);
+                int jumpEnd = pc - 3;
+                code[jumpElse] = pc;
+                statement(c.elsebranch);
+                code[jumpEnd] = pc;
+            }
+            else {
+                code[jumpElse] = pc;
+            }
+        }
+        else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            int head = pc;
+            int jumpEnd = branchIfFalse(l.test);
+            statement(l.body);
+            emit(Registers.JMP, head, 0, 0);
+            code[jumpEnd] = pc;
+        }
+        else if (s instanceof Print) {
+            Print p = (Print) s;
+            emit(Registers.PRINT, expression(p.expression, -1), printType(typeOf(p.expression)), 0);
+        }
+        else if (s instanceof StatementCall) {
+            StatementCall c = (StatementCall) s;
+            call(c.function, c.params, temp());
+        }
+        else if (s instanceof Return) {
+            emit(Registers.RET, expression(((Return) s).result, -1), 0, 0);
+        }
+        else {
+            throw new IllegalArgumentException("compile error : " + s);
+        }
+
+        next = mark;
+    }
+
+    // local = local + k  or  local = local - k  =>  IINC
+    private boolean increment(Assignment a) {
+        if (!(a.source instanceof Binary)) return false;
+
+        Binary b = (Binary) a.source;
+        boolean plus = b.op.code == Opcode.INT_PLUS;
+
+        if (!plus && b.op.code != Opcode.INT_MINUS) return false;
+        if (!(b.term1 instanceof Variable) || !(b.term2 instanceof IntValue)) return false;
+
+        Variable v = (Variable) b.term1;
+        if (v.isGlobal() || v.slot() != a.target.slot()) return false;
+
+        int k = ((IntValue) b.term2).intValue();
+        emit(Registers.IINC, v.slot(), plus ? k : -k, plus ? 0 : 1);
+        return true;
+    }
+
+    // emits a branch taken when test is false, returns the operand to patch
+    private int branchIfFalse(Expression test) {
+        if (test instanceof Binary) {
+            Binary b = (Binary) test;
+            int mark = next;
+
+            // x % i == 0 , x % i != 0
+            if ((b.op.code == Opcode.INT_EQ || b.op.code == Opcode.INT_NE)
+                    && b.term1 instanceof Binary && ((Binary) b.term1).op.code == Opcode.INT_REM
+                    && b.term2 instanceof IntValue && ((IntValue) b.term2).intValue() == 0) {
+                Binary rem = (Binary) b.term1;
+                int x = expression(rem.term1, -1);
+                int y = expression(rem.term2, -1);
+                next = mark;
+                emit(b.op.code == Opcode.INT_EQ ? Registers.JNREMZ : Registers.JREMZ, x, y, 0);
+                return pc - 1;
+            }
+
+            // i < n and the other int / char comparisons
+            int op = Registers.branchOf(b.op.code);
+            if (op >= 0) {
+                int x = expression(b.term1, -1);
+                int y = expression(b.term2, -1);
+                next = mark;
+                emit(op, x, y, 0);
+                return pc - 1;
+            }
+        }
+
+        int r = expression(test, -1);
+        emit(Registers.JF, r, 0, string("undef value error : " + test));
+        return pc - 2;
+    }
+
+    // Compiles e and returns the register holding its value. A result
+    // that has to be computed goes into dst, or a new temporary when
+    // dst is -1; a local or a constant is returned as its own register.
+    private int expression(Expression e, int dst) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+
+            if (v.isGlobal()) {
+                int d = dst >= 0 ? dst : temp();
+                emit(Registers.GGET, d, v.slot(), 0);
+                return d;
+            }
+
+            return move(v.slot(), dst);
+        }
+        else if (e instanceof Value) {
+            return move(constant(Compiler.encode((Value) e)), dst);
+        }
+        else if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            int op = Registers.of(b.op.code);
+            int mark = next;
+
+            if (op < 0) { // typed, but not evaluable : fails when reached
+                emit(Registers.FAIL, string("apply binary error : " + b.op), 0, 0);
+                return dst >= 0 ? dst : temp();
+            }
+
+            int x = expression(b.term1, -1);
+            int y = expression(b.term2, -1);
+            next = mark;
+            int d = dst >= 0 ? dst : temp();
+            emit(op, d, x, y);
+            return d;
+        }
+        else if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            int mark = next;
+            int x = expression(u.term, -1);
+            next = mark;
+            int d = dst >= 0 ? dst : temp();
+            emit(Registers.of(u.op.code), d, x, 0);
+            return d;
+        }
+        else if (e instanceof ExpressionCall) {
+            ExpressionCall c = (ExpressionCall) e;
+            int mark = next;
+            int d = dst >= 0 ? dst : temp();
+            call(c.function, c.params, d);
+            next = dst >= 0 ? mark : d + 1;
+            return d;
+        }
+
+        throw new IllegalArgumentException("compile error : " + e);
+    }
+
+    // arguments are evaluated into consecutive temporaries
+    private void call(Function f, ArrayList<Expression> args, int dst) {
+        int base = next;
+
+        for (int i = 0; i < args.size(); i++) {
+            temp();
+        }
+        for (int i = 0; i < args.size(); i++) {
+            expression(args.get(i), base + i);
+        }
+
+        emit(Registers.CALL, dst, index.get(f), base);
+    }
+
+    private int move(int r, int dst) {
+        if (dst < 0 || dst == r) return r;
+        emit(Registers.MOVE, dst, r, 0);
+        return dst;
+    }
+
+    private int temp() {
+        int t = next++;
+        if (next > top) top = next;
+        return t;
+    }
+
+    private Type typeOf(Expression e) {
+        if (e instanceof Variable) return tm.get(e);
+        if (e instanceof Value) return ((Value) e).type();
+        if (e instanceof Binary) return ((Binary) e).op.code.type;
+        if (e instanceof Unary) return ((Unary) e).op.code.type;
+        if (e instanceof ExpressionCall) return ((ExpressionCall) e).function.type;
+        throw new IllegalArgumentException("compile error : " + e);
+    }
+
+    private static int printType(Type t) {
+        if (t == Type.INT) return Bytecode.P_INT;
+        if (t == Type.FLOAT) return Bytecode.P_FLOAT;
+        if (t == Type.CHAR) return Bytecode.P_CHAR;
+        if (t == Type.BOOL) return Bytecode.P_BOOL;
+        return Bytecode.P_VOID;
+    }
+
+    // constant registers sit right after the frame slots
+    private int constant(long c) {
+        Integer k = constantIndex.get(c);
+
+        if (k == null) {
+            k = constants.size();
+            constants.add(c);
+            constantIndex.put(c, k);
+        }
+
+        return slots + k;
+    }
+
+    private int string(String s) {
+        strings.add(s);
+        return strings.size() - 1;
+    }
+
+    private void emit(int op, int a, int b, int c) {
+        if (pc + 4 > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[pc++] = op;
+        code[pc++] = a;
+        code[pc++] = b;
+        code[pc++] = c;
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+
+public class RegisterVM {
+    // Interpreter for Registers. Register files of active calls are laid
+    // out one after another in a single long[]; a call copies the callee's
+    // initial file above the caller's and then its arguments into it.
+    // Values are encoded as in Bytecode, with UNDEF for undefined.
+
+    private final Registers rc;
+    private final long[] globals;
+
+    private long[] regs = new long[1024];
+
+    // saved caller state, one entry per active call
+    private int[] savedPc = new int[64];
+    private int[] savedFp = new int[64];
+    private int[] savedFn = new int[64];
+    private int calls = 0;
+
+    private long dispatches = 0;
+
+    private final StringBuilder out = new StringBuilder();
+
+    RegisterVM(Registers rc) {
+        this.rc = rc;
+        this.globals = new long[rc.globals.size()];
+        Arrays.fill(globals, Bytecode.UNDEF);
+    }
+
+    public State run() {
+        try {
+            execute();
+        } finally {
+            flush();
+        }
+
+        return finalState();
+    }
+
+    // instructions executed by the last run
+    public long dispatches() {
+        return dispatches;
+    }
+
+    private void execute() {
+        final int[] code = rc.code;
+        long[] r = this.regs;
+        long n = 0;
+
+        int fn = rc.main;
+        int fp = 0;
+        int pc = rc.entry[fn];
+
+        if (rc.frame[fn].length > r.length) {
+            r = this.regs = new long[rc.frame[fn].length];
+        }
+        System.arraycopy(rc.frame[fn], 0, r, 0, rc.frame[fn].length);
+
+        try {
+            while (true) {
+                int op = code[pc];
+                int a = code[pc + 1], b = code[pc + 2], c = code[pc + 3];
+                pc += 4;
+                n++;
+
+                switch (op) {
+                    case Registers.MOVE:
+                        r[fp + a] = r[fp + b];
+                        break;
+                    case Registers.GGET:
+                        r[fp + a] = globals[b];
+                        break;
+                    case Registers.GSET:
+                        globals[a] = r[fp + b];
+                        break;
+                    case Registers.JMP:
+                        pc = a;
+                        break;
+                    case Registers.JF: {
+                        long t = r[fp + a];
+                        if (t == Bytecode.UNDEF)
+                            throw new IllegalArgumentException(rc.strings[c]);
+                        if (t == 0) pc = b;
+                        break;
+                    }
+                    case Registers.CALL: {
+                        long[] init = rc.frame[b];
+                        int base = fp + rc.frame[fn].length;
+
+                        if (base + init.length > r.length) {
+                            r = this.regs = Arrays.copyOf(r, Math.max(r.length * 2, base + init.length));
+                        }
+                        if (calls == savedPc.length) {
+                            savedPc = Arrays.copyOf(savedPc, calls * 2);
+                            savedFp = Arrays.copyOf(savedFp, calls * 2);
+                            savedFn = Arrays.copyOf(savedFn, calls * 2);
+                        }
+
+                        savedPc[calls] = pc;
+                        savedFp[calls] = fp;
+                        savedFn[calls] = fn;
+                        calls++;
+
+                        System.arraycopy(init, 0, r, base, init.length);
+                        System.arraycopy(r, fp + c, r, base, rc.params[b]);
+                        fp = base;
+                        fn = b;
+                        pc = rc.entry[b];
+                        break;
+                    }
+                    case Registers.RET:
+                    case Registers.RETDEF: {
+                        long result = op == Registers.RET ? r[fp + a] : Bytecode.UNDEF;
+
+                        if (calls == 0) { // main returned
+                            return;
+                        }
+
+                        calls--;
+                        pc = savedPc[calls];
+                        fp = savedFp[calls];
+                        fn = savedFn[calls];
+                        r[fp + code[pc - 3]] = result; // a of the CALL
+                        break;
+                    }
+                    case Registers.PRINT:
+                        print(b, r[fp + a]);
+                        break;
+                    case Registers.FAIL:
+                        throw new IllegalArgumentException(rc.strings[a]);
+
+                    case Registers.IADD: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = (int) x + (int) y; break; }
+                    case Registers.ISUB: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = (int) x - (int) y; break; }
+                    case Registers.IMUL: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = (int) x * (int) y; break; }
+                    case Registers.IDIV: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = (int) x / (int) y; break; }
+                    case Registers.IREM: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = (int) x % (int) y; break; }
+                    case Registers.INEG: { long x = r[fp + b]; defined(op, x); r[fp + a] = -(int) x; break; }
+
+                    case Registers.FADD: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = bits(f(x) + f(y)); break; }
+                    case Registers.FSUB: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = bits(f(x) - f(y)); break; }
+                    case Registers.FMUL: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = bits(f(x) * f(y)); break; }
+                    case Registers.FDIV: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = bits(f(x) / f(y)); break; }
+                    case Registers.FREM: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = bits(f(x) % f(y)); break; }
+                    case Registers.FNEG: { long x = r[fp + b]; defined(op, x); r[fp + a] = bits(-f(x)); break; }
+
+                    // int, char and bool are all held as their int value
+                    case Registers.ILT: case Registers.CLT: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x < y ? 1 : 0; break; }
+                    case Registers.ILE: case Registers.CLE: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x <= y ? 1 : 0; break; }
+                    case Registers.IEQ: case Registers.CEQ: case Registers.BEQ: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x == y ? 1 : 0; break; }
+                    case Registers.INE: case Registers.CNE: case Registers.BNE: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x != y ? 1 : 0; break; }
+                    case Registers.IGT: case Registers.CGT: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x > y ? 1 : 0; break; }
+                    case Registers.IGE: case Registers.CGE: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x >= y ? 1 : 0; break; }
+
+                    case Registers.FLT: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = f(x) < f(y) ? 1 : 0; break; }
+                    case Registers.FLE: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = f(x) <= f(y) ? 1 : 0; break; }
+                    case Registers.FEQ: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = f(x) == f(y) ? 1 : 0; break; }
+                    case Registers.FNE: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = f(x) != f(y) ? 1 : 0; break; }
+                    case Registers.FGT: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = f(x) > f(y) ? 1 : 0; break; }
+                    case Registers.FGE: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = f(x) >= f(y) ? 1 : 0; break; }
+
+                    case Registers.AND: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x & y; break; }
+                    case Registers.OR: { long x = r[fp + b], y = r[fp + c]; defined(op, x, y); r[fp + a] = x | y; break; }
+                    case Registers.NOT: { long x = r[fp + b]; defined(op, x); r[fp + a] = x ^ 1; break; }
+
+                    case Registers.I2F: { long x = r[fp + b]; defined(op, x); r[fp + a] = bits((float) (int) x); break; }
+                    case Registers.F2I: { long x = r[fp + b]; defined(op, x); r[fp + a] = (int) f(x); break; }
+                    case Registers.C2I: { long x = r[fp + b]; defined(op, x); r[fp + a] = x; break; }
+                    case Registers.I2C: { long x = r[fp + b]; defined(op, x); r[fp + a] = (char) (int) x; break; }
+
+                    case Registers.IINC: {
+                        long x = r[fp + a];
+                        if (x == Bytecode.UNDEF) // c is set when the source was i - k
+                            throw new IllegalArgumentException("undef value error : " + (c == 0 ? Opcode.INT_PLUS : Opcode.INT_MINUS).val);
+                        r[fp + a] = (int) x + b;
+                        break;
+                    }
+
+                    case Registers.JNILT: case Registers.JNCLT: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if (!(x < y)) pc = c; break; }
+                    case Registers.JNILE: case Registers.JNCLE: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if (!(x <= y)) pc = c; break; }
+                    case Registers.JNIEQ: case Registers.JNCEQ: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if (x != y) pc = c; break; }
+                    case Registers.JNINE: case Registers.JNCNE: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if (x == y) pc = c; break; }
+                    case Registers.JNIGT: case Registers.JNCGT: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if (!(x > y)) pc = c; break; }
+                    case Registers.JNIGE: case Registers.JNCGE: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if (!(x >= y)) pc = c; break; }
+
+                    case Registers.JNREMZ: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if ((int) x % (int) y != 0) pc = c; break; }
+                    case Registers.JREMZ: { long x = r[fp + a], y = r[fp + b]; defined(op, x, y); if ((int) x % (int) y == 0) pc = c; break; }
+
+                    default:
+                        throw new IllegalArgumentException("illegal instruction : " + op);
+                }
+            }
+        } finally {
+            dispatches = n;
+        }
+    }
+
+    private static float f(long v) {
+        return Float.intBitsToFloat((int) v);
+    }
+
+    private static long bits(float v) {
+        return Float.floatToRawIntBits(v);
+    }
+
+    private static void defined(int op, long a) {
+        if (a == Bytecode.UNDEF)
+            throw new IllegalArgumentException("undef value error : " + Registers.TYPED[op].val);
+    }
+
+    private static void defined(int op, long a, long b) {
+        if (a == Bytecode.UNDEF || b == Bytecode.UNDEF)
+            throw new IllegalArgumentException("undef value error : " + Registers.TYPED[op].val);
+    }
+
+    // same text as printing the equivalent Value
+    private void print(int type, long v) {
+        if (v == Bytecode.UNDEF)
+            out.append("undef");
+        else if (type == Bytecode.P_INT)
+            out.append((int) v);
+        else if (type == Bytecode.P_FLOAT)
+            out.append(f(v));
+        else if (type == Bytecode.P_CHAR)
+            out.append((char) v);
+        else if (type == Bytecode.P_BOOL)
+            out.append(v != 0);
+        else
+            out.append("undef");
+
+        if (out.length() >= 8192) flush();
+    }
+
+    private void flush() {
+        System.out.print(out);
+        out.setLength(0);
+    }
+
+    private State finalState() {
+        Declarations ds = rc.globals;
+        Value[] frame = new Value[ds.size()];
+
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = VM.decode(ds.get(i).t, globals[i]);
+        }
+
+        return Semantics.finalState(ds, frame);
+    }
+}
@@ -0,0 +1,144 @@
+// Register form of a compiled program, produced by RegisterCompiler and
+// run by RegisterVM. Every instruction is four words : op a b c. Frame
+// slots (params, then locals) are registers 0 .. n-1, followed by one
+// register per constant and then the temporaries of the function.
+
+public class Registers {
+    static final int MOVE = 0;      // a = b
+    static final int GGET = 1;      // a = globals[b]
+    static final int GSET = 2;      // globals[a] = b
+    static final int JMP = 3;       // pc = a
+    static final int JF = 4;        // if !a : pc = b; c names a for errors
+    static final int CALL = 5;      // a = call function b, args in c ..
+    static final int RET = 6;       // return a
+    static final int RETDEF = 7;    // return undef (no return executed)
+    static final int PRINT = 8;     // print a as type b
+    static final int FAIL = 9;      // throw strings[a]
+
+    // a = b op c, a = op b for unary operators and casts
+    static final int IADD = 10, ISUB = 11, IMUL = 12, IDIV = 13, IREM = 14, INEG = 15;
+    static final int FADD = 16, FSUB = 17, FMUL = 18, FDIV = 19, FREM = 20, FNEG = 21;
+    static final int ILT = 22, ILE = 23, IEQ = 24, INE = 25, IGT = 26, IGE = 27;
+    static final int FLT = 28, FLE = 29, FEQ = 30, FNE = 31, FGT = 32, FGE = 33;
+    static final int CLT = 34, CLE = 35, CEQ = 36, CNE = 37, CGT = 38, CGE = 39;
+    static final int BEQ = 40, BNE = 41, AND = 42, OR = 43, NOT = 44;
+    static final int I2F = 45, F2I = 46, C2I = 47, I2C = 48;
+
+    // Superinstructions for the common CLite idioms
+    static final int IINC = 49;     // a = a + b, b an immediate   : i = i + 1, c = 1 for i - k
+    // if !(a rel b) : pc = c                                      : while (i < n)
+    static final int JNILT = 50, JNILE = 51, JNIEQ = 52, JNINE = 53, JNIGT = 54, JNIGE = 55;
+    static final int JNCLT = 56, JNCLE = 57, JNCEQ = 58, JNCNE = 59, JNCGT = 60, JNCGE = 61;
+    static final int JNREMZ = 62;   // if a % b != 0 : pc = c      : if (x % i == 0)
+    static final int JREMZ = 63;    // if a % b == 0 : pc = c      : if (x % i != 0)
+
+    static final int OPCODES = 64;
+
+    // typed operator behind each instruction that can read an undef value
+    static final Opcode[] TYPED = new Opcode[OPCODES];
+
+    static {
+        for (Opcode c : Opcode.values()) {
+            int op = of(c);
+            if (op >= 0) TYPED[op] = c;
+        }
+
+        TYPED[JNILT] = Opcode.INT_LT; TYPED[JNILE] = Opcode.INT_LE;
+        TYPED[JNIEQ] = Opcode.INT_EQ; TYPED[JNINE] = Opcode.INT_NE;
+        TYPED[JNIGT] = Opcode.INT_GT; TYPED[JNIGE] = Opcode.INT_GE;
+        TYPED[JNCLT] = Opcode.CHAR_LT; TYPED[JNCLE] = Opcode.CHAR_LE;
+        TYPED[JNCEQ] = Opcode.CHAR_EQ; TYPED[JNCNE] = Opcode.CHAR_NE;
+        TYPED[JNCGT] = Opcode.CHAR_GT; TYPED[JNCGE] = Opcode.CHAR_GE;
+        TYPED[JNREMZ] = Opcode.INT_REM; TYPED[JREMZ] = Opcode.INT_REM;
+    }
+
+    // instruction for a typed operator, -1 when there is none
+    static int of(Opcode c) {
+        switch (c) {
+            case INT_PLUS: return IADD;
+            case INT_MINUS: return ISUB;
+            case INT_TIMES: return IMUL;
+            case INT_DIV: return IDIV;
+            case INT_REM: return IREM;
+            case INT_NEG: return INEG;
+            case FLOAT_PLUS: return FADD;
+            case FLOAT_MINUS: return FSUB;
+            case FLOAT_TIMES: return FMUL;
+            case FLOAT_DIV: return FDIV;
+            case FLOAT_REM: return FREM;
+            case FLOAT_NEG: return FNEG;
+            case INT_LT: return ILT;
+            case INT_LE: return ILE;
+            case INT_EQ: return IEQ;
+            case INT_NE: return INE;
+            case INT_GT: return IGT;
+            case INT_GE: return IGE;
+            case FLOAT_LT: return FLT;
+            case FLOAT_LE: return FLE;
+            case FLOAT_EQ: return FEQ;
+            case FLOAT_NE: return FNE;
+            case FLOAT_GT: return FGT;
+            case FLOAT_GE: return FGE;
+            case CHAR_LT: return CLT;
+            case CHAR_LE: return CLE;
+            case CHAR_EQ: return CEQ;
+            case CHAR_NE: return CNE;
+            case CHAR_GT: return CGT;
+            case CHAR_GE: return CGE;
+            case BOOL_EQ: return BEQ;
+            case BOOL_NE: return BNE;
+            case AND: return AND;
+            case OR: return OR;
+            case NOT: return NOT;
+            case I2F: return I2F;
+            case F2I: return F2I;
+            case C2I: return C2I;
+            case I2C: return I2C;
+            default: return -1;
+        }
+    }
+
+    // fused compare-and-branch for an int or char relational operator,
+    // branching when the comparison is false; -1 when there is none
+    static int branchOf(Opcode c) {
+        switch (c) {
+            case INT_LT: return JNILT;
+            case INT_LE: return JNILE;
+            case INT_EQ: return JNIEQ;
+            case INT_NE: return JNINE;
+            case INT_GT: return JNIGT;
+            case INT_GE: return JNIGE;
+            case CHAR_LT: return JNCLT;
+            case CHAR_LE: return JNCLE;
+            case CHAR_EQ: return JNCEQ;
+            case CHAR_NE: return JNCNE;
+            case CHAR_GT: return JNCGT;
+            case CHAR_GE: return JNCGE;
+            default: return -1;
+        }
+    }
+
+    final int[] code;
+    final String[] strings;
+
+    // per function, indexed by function number
+    final String[] names;
+    final int[] entry;      // first instruction
+    final int[] params;     // number of params, registers 0 .. params-1
+    final long[][] frame;   // initial register file : undef locals, constants
+
+    final Declarations globals;
+    final int main;
+
+    Registers(int[] code, String[] strings, String[] names, int[] entry,
+              int[] params, long[][] frame, Declarations globals, int main) {
+        this.code = code;
+        this.strings = strings;
+        this.names = names;
+        this.entry = entry;
+        this.params = params;
+        this.frame = frame;
+        this.globals = globals;
+        this.main = main;
+    }
+}
@@ -1,5 +1,4 @@
 import java.util.HashMap;
-import java.util.Stack;
 
 class State extends HashMap<Variable, Value> {
     public State onion(Variable key, Value val) {
@@ -14,38 +13,249 @@ class State extends HashMap<Variable, Value> {
 }
 
 public class Semantics {
-    public static Stack<Function> callStack = new Stack<>();
+    public static HashMap<Variable, Integer> slots(Declarations declarations) {
+        HashMap<Variable, Integer> slots = new HashMap<>();
 
-    public static State initialState(Declarations declarations) {
+        for (int i = 0; i < declarations.size(); i++) {
+            slots.put(declarations.get(i).v, i);
+        }
+
+        return slots;
+    }
+
+    public static Value[] initialFrame(Declarations declarations) {
+        Value[] frame = new Value[declarations.size()];
+
+        for (int i = 0; i < declarations.size(); i++) {
+            frame[i] = Value.mkValue(declarations.get(i).t);
+        }
+
+        return frame;
+    }
+
+    public static State finalState(Declarations declarations, Value[] frame) {
         State state = new State();
 
-        for (Declaration d : declarations) {
-            state.put(d.v, Value.mkValue(d.t));
+        for (int i = 0; i < declarations.size(); i++) {
+            state.put(declarations.get(i).v, frame[i]);
         }
 
         return state;
     }
     public static void main(String[] args) {
         try {
-            Parser parser  = new Parser(new Lexer(args[0]));
-            Program prog = parser.program();
-            //prog.display();
+            // Semantics [--engine=ast|vm|reg|jit|tiered|native] [--threshold=n] [--tier-events] [--time]
+            //           [--parse-threads=n] [--watch] [--cache[=dir]] file.cl
+            //           --aot file.cl -o file.jar
+            //           --emit-c file.cl -o file.c
+            String engine = "ast";
+            boolean time = false;
+            String file = null;
+            String output = null;
+            int parseThreads = 1;
+            boolean watch = false;
+            ProgramCache cache = null;
 
-            TypeMap gm = TypeChecker.typing(prog.globals);
-            prog.V(gm);
-            System.out.println("[ Program is Valid ]\n");
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (a.equals("--aot"))
+                    engine = "aot";
+                else if (a.equals("--emit-c"))
+                    engine = "c";
+                else if (a.equals("-o") && i + 1 < args.length)
+                    output = args[++i];
+                else if (a.startsWith("--engine="))
+                    engine = a.substring("--engine=".length());
+                else if (a.startsWith("--threshold="))
+                    Tier.threshold = Integer.parseInt(a.substring("--threshold=".length()));
+                else if (a.startsWith("--parse-threads="))
+                    parseThreads = Integer.parseInt(a.substring("--parse-threads=".length()));
+                else if (a.equals("--tier-events"))
+                    Tier.events = true;
+                else if (a.equals("--time"))
+                    time = true;
+                else if (a.equals("--watch"))
+                    watch = true;
+                else if (a.equals("--cache"))
+                    cache = new ProgramCache(".clite-cache");
+                else if (a.startsWith("--cache="))
+                    cache = new ProgramCache(a.substring("--cache=".length()));
+                else
+                    file = a;
+            }
 
-            prog = prog.T(gm);
-            prog.display();
+            if (file == null) throw new IllegalArgumentException("no source file");
+            if ((engine.equals("aot") || engine.equals("c")) && output == null) throw new IllegalArgumentException("no output file");
+            if (!java.util.Arrays.asList("ast", "vm", "reg", "jit", "tiered", "native", "aot", "c").contains(engine))
+                throw new IllegalArgumentException("unknown engine : " + engine);
 
-            System.out.println("[ Program Meaning ]");
-            State res = prog.M();
+            if (watch) {
+                watch(file, engine, output, time);
+                return;
+            }
 
-            System.out.println("\n\n[ Final Globals ]");
-            res.display();
+            // a cached program is checked already, and prints what
+            // checking it printed
+            java.nio.file.Path path = java.nio.file.Paths.get(file);
+            byte[] source = cache != null && java.nio.file.Files.isRegularFile(path)
+                            ? java.nio.file.Files.readAllBytes(path) : null;
+            Program prog = source != null ? cache.get(source) : null;
+
+            if (prog == null) {
+                java.io.ByteArrayOutputStream printed = new java.io.ByteArrayOutputStream();
+                java.io.PrintStream out = System.out;
+                if (source != null) System.setOut(new java.io.PrintStream(printed, true));
+
+                try {
+                    prog = parseThreads > 1 ? ParallelParser.program(file, parseThreads)
+                                            : new Parser(new Lexer(file)).program();
+                    //prog.display();
+
+                    prog = check(prog, null);
+                } finally {
+                    if (source != null) {
+                        System.setOut(out);
+                        out.print(printed);
+                    }
+                }
+                if (source != null) cache.put(source, printed.toString(), prog);
+            }
+
+            int status = run(prog, engine, output, time);
+            if (status != 0) System.exit(status);
         } catch (Exception e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
     } //main
+
+    // prog type checked and transformed, in one walk, and resolved, with
+    // what that prints; done as for Program.VT
+    static Program check(Program prog, java.util.Map<Function, Block> done) {
+        TypeMap gm = TypeChecker.typing(prog.globals);
+        prog = prog.VT(gm, done);
+        System.out.println("[ Program is Valid ]\n");
+
+        prog.resolve();
+        prog.display();
+        return prog;
+    }
+
+    // source, given as its text rather than a file, parsed as a file of
+    // it would be; a syntax error throws ParseError instead of exiting
+    static Program parse(String source) {
+        char[] text = Lexer.lines(source.toCharArray(), source.length());
+        Parser parser = new Parser(new Lexer(text, 0, text.length));
+        parser.part = true;
+        return parser.program();
+    }
+
+    // source parsed and checked as above, without printing anything
+    static Program checked(String source) {
+        java.io.PrintStream out = System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        try {
+            return check(parse(source), null);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    // runs or compiles prog as engine says, returning the exit status of
+    // a native executable, else 0
+    static int run(Program prog, String engine, String output, boolean time) throws Exception {
+        if (engine.equals("aot")) {
+            Aot.write(prog, output);
+            System.out.println("[ Compiled to " + output + " ]");
+            return 0;
+        }
+        if (engine.equals("c")) {
+            Native.emit(prog, output);
+            System.out.println("[ Translated to " + output + " ]");
+            return 0;
+        }
+
+        String executable = null;
+        if (engine.equals("native")) {
+            if (Native.compiler() != null)
+                executable = Native.build(prog);
+            else
+                System.err.println("[ native : no C compiler, running the tree walker ]");
+        }
+
+        System.out.println("[ Program Meaning ]");
+        long start = System.nanoTime();
+        State res;
+        long dispatches = -1; // instructions executed, for the VM engines
+
+        if (engine.equals("vm")) {
+            VM vm = new VM(Compiler.compile(prog));
+            res = vm.run();
+            dispatches = vm.dispatches();
+        }
+        else if (engine.equals("reg")) {
+            RegisterVM vm = new RegisterVM(RegisterCompiler.compile(prog));
+            res = vm.run();
+            dispatches = vm.dispatches();
+        }
+        else if (executable != null) { // prints its own final globals
+            int status = Native.run(executable);
+            if (status != 0) return status;
+            res = null;
+        }
+        else if (engine.equals("jit"))
+            res = Jit.run(prog);
+        else if (engine.equals("tiered")) {
+            // only for this run : an ast run after it is not to tier up
+            Tier.program = prog;
+            Tier.enabled = true;
+            try {
+                res = prog.M();
+            } finally {
+                Tier.enabled = false;
+                Tier.program = null;
+            }
+        }
+        else
+            res = prog.M();
+
+        if (time)
+            System.err.println("[ " + engine + " : " + (System.nanoTime() - start) / 1000000 + " ms"
+                    + (dispatches >= 0 ? ", " + dispatches + " dispatches" : "") + " ]");
+
+        if (res != null) {
+            System.out.println("\n\n[ Final Globals ]");
+            res.display();
+        }
+        return 0;
+    }
+
+    // Runs file as main does, then again each time it changes, until
+    // killed. FrontEnd parses and checks again only the top-level items
+    // that changed; an error is reported and the watch goes on.
+    static void watch(String file, String engine, String output, boolean time) throws Exception {
+        java.nio.file.Path path = java.nio.file.Paths.get(file);
+        FrontEnd front = new FrontEnd();
+        java.nio.file.attribute.FileTime seen = null;
+
+        while (true) {
+            java.nio.file.attribute.FileTime modified = java.nio.file.Files.getLastModifiedTime(path);
+            if (modified.equals(seen)) {
+                Thread.sleep(100);
+                continue;
+            }
+            seen = modified;
+
+            long start = System.nanoTime();
+            try {
+                Program prog = front.update(java.nio.file.Files.readString(path, java.nio.charset.Charset.defaultCharset()));
+                run(prog, engine, output, time);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+            System.out.flush();
+            System.err.println("[ watch : " + (System.nanoTime() - start) / 1000000 + " ms from change to result, "
+                    + front.stats() + " ]");
+        }
+    }
 }
@@ -0,0 +1,56 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Symbols {
+    // Numbers identifiers : each distinct name gets the next int the
+    // first time it is interned in a table, so names compare as ints, and
+    // name() gives back its one String. A Lexer numbers its names in the
+    // table current when it is made, and a Variable keeps the table its
+    // number is from; looking a name or a number up takes no lock, only
+    // numbering a new name does. scope() starts a new current table, so
+    // that a long session, as --watch, can drop names it no longer uses;
+    // a number is only ever read in its own table.
+
+    private static volatile Symbols table = new Symbols();
+
+    private final ConcurrentHashMap<String, Integer> symbols = new ConcurrentHashMap<>();
+    // names[n] is the name numbered n; written before n is published,
+    // and replaced rather than grown in place
+    private volatile String[] names = new String[256];
+
+    static Symbols current() {
+        return table;
+    }
+
+    static synchronized void scope() {
+        table = new Symbols();
+    }
+
+    int intern(String name) {
+        Integer n = symbols.get(name);
+        return n != null ? n : add(name);
+    }
+
+    String name(int symbol) {
+        return names[symbol];
+    }
+
+    // how many names are numbered in this table
+    int size() {
+        return symbols.size();
+    }
+
+    private synchronized int add(String name) {
+        Integer n = symbols.get(name);
+        if (n != null) return n;
+
+        int size = symbols.size();
+        String[] a = names;
+        if (size == a.length)
+            a = Arrays.copyOf(a, size * 2);
+        a[size] = name;
+        names = a;
+        symbols.put(name, size);
+        return size;
+    }
+}
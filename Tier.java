@@ -0,0 +1,178 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+public class Tier {
+    // Tiered execution for the tree walker. Function.M counts calls and
+    // Loop.M counts iterations; when a count reaches the threshold, the
+    // function, or the loop together with the frame it is running on, is
+    // compiled by JitCompiler, and from then on every call or entry the
+    // compiled code can take runs there. A loop changes tier in the middle
+    // of its run : the compiled loop picks up the interpreter's frame at
+    // the top of the next iteration and stores it back when it ends.
+
+    static boolean enabled = false;
+    static int threshold = 1000;
+    static boolean events = false;      // report tier changes on stderr
+
+    static Program program;
+    private static Value[] globals;
+
+    // compiled code for a Function or a Loop
+    static class Entry {
+        final MethodHandle code;        // (Value[] frame) -> Value
+        final char[] kinds;             // per frame slot, 'J' if it may be undef
+
+        Entry(MethodHandle code, char[] kinds) {
+            this.code = code;
+            this.kinds = kinds;
+        }
+
+        // typed slots cannot take an undef value
+        boolean accepts(Value[] frame) {
+            for (int k = 0; k < kinds.length; k++) {
+                if (kinds[k] != 'J' && frame[k].isUndef()) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final Entry NONE = new Entry(null, new char[0]); // not compilable
+
+    // whether the call of f on frame is to run compiled
+    static boolean hot(Function f, Value[] globals, Value[] frame) {
+        if (f.compiled == null) {
+            if (++f.calls < threshold) return false;
+
+            Tier.globals = globals;
+            try {
+                f.compiled = load(JitCompiler.function(program, f), "$enter");
+                event(f.name + " compiled after " + f.calls + " calls");
+            } catch (UnsupportedOperationException e) {
+                f.compiled = NONE;
+                event(f.name + " not compiled : " + e.getMessage());
+            }
+        }
+
+        return f.compiled != NONE && f.compiled.accepts(frame);
+    }
+
+    // whether the rest of loop l is to run compiled
+    static boolean hot(Loop l, Value[] globals, Value[] frame) {
+        if (l.compiled == null) {
+            if (++l.trips < threshold) return false;
+
+            Tier.globals = globals;
+            Function f = enclosing(l);
+            try {
+                l.compiled = load(JitCompiler.loop(program, f, l, frame), "$loop");
+                event("loop in " + f.name + " compiled after " + l.trips + " iterations, entering mid-loop");
+            } catch (UnsupportedOperationException e) {
+                l.compiled = NONE;
+                event("loop in " + f.name + " not compiled : " + e.getMessage());
+            }
+        }
+
+        return l.compiled != NONE && l.compiled.accepts(frame);
+    }
+
+    static Value call(Entry e, Value[] frame) {
+        try {
+            return (Value) e.code.invokeExact(frame);
+        } catch (RuntimeException | Error x) {
+            throw x;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        } finally {
+            Jit.flush(); // before the interpreter prints again
+        }
+    }
+
+    private static Entry load(JitCompiler c, String entry) {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup().defineHiddenClass(c.bytes, true);
+            MethodType t = MethodType.methodType(Value.class, Value[].class);
+            return new Entry(l.findStatic(l.lookupClass(), entry, t), c.entry);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Function enclosing(Loop l) {
+        for (Function f : program.functions) {
+            if (contains(f.body, l)) return f;
+        }
+        throw new IllegalStateException("loop outside any function");
+    }
+
+    private static boolean contains(Statement s, Loop l) {
+        if (s == l) return true;
+        if (s instanceof Block) {
+            for (Statement m : ((Block) s).members) {
+                if (contains(m, l)) return true;
+            }
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return contains(c.thenbranch, l) || (c.elsebranch != null && contains(c.elsebranch, l));
+        }
+        if (s instanceof Loop) {
+            return contains(((Loop) s).body, l);
+        }
+        return false;
+    }
+
+    private static void event(String s) {
+        if (events) System.err.println("[ tier : " + s + " ]");
+    }
+
+    // called from compiled code, values in the Bytecode encoding
+
+    static long global(int slot) {
+        return Compiler.encode(globals[slot]);
+    }
+
+    static void setGlobal(long v, int slot) {
+        globals[slot] = VM.decode(program.globals.get(slot).t, v);
+    }
+
+    static int intSlot(Value[] frame, int k) {
+        return (int) Compiler.encode(frame[k]);
+    }
+
+    static float floatSlot(Value[] frame, int k) {
+        return Float.intBitsToFloat((int) Compiler.encode(frame[k]));
+    }
+
+    static long longSlot(Value[] frame, int k) {
+        return Compiler.encode(frame[k]);
+    }
+
+    static void storeInt(Value[] frame, int k, int v, int type) {
+        frame[k] = box(v, type);
+    }
+
+    static void storeFloat(Value[] frame, int k, float v) {
+        frame[k] = box(v);
+    }
+
+    static void storeLong(Value[] frame, int k, long v, int type) {
+        frame[k] = box(v, type);
+    }
+
+    static Value box(int v, int type) {
+        return box((long) v, type);
+    }
+
+    static Value box(float v) {
+        return new FloatValue(v);
+    }
+
+    static Value box(long v, int type) {
+        if (type == Bytecode.P_INT) return VM.decode(Type.INT, v);
+        if (type == Bytecode.P_FLOAT) return VM.decode(Type.FLOAT, v);
+        if (type == Bytecode.P_CHAR) return VM.decode(Type.CHAR, v);
+        if (type == Bytecode.P_BOOL) return VM.decode(Type.BOOL, v);
+        return new VoidValue();
+    }
+}
@@ -4,6 +4,8 @@ public class Token {
 
     private static final String[] reserved = new String[KEYWORDS];
     private static Token[] token = new Token[KEYWORDS];
+    // the one Token of each keyword and operator type
+    private static final Token[] fixed = new Token[TokenType.values().length];
 
     public static final Token eofTok = new Token(TokenType.Eof, "<<EOF>>");
     public static final Token boolTok = new Token(TokenType.Bool, "bool");
@@ -43,12 +45,37 @@ public class Token {
     public static final Token andTok = new Token(TokenType.And, "&&");
     public static final Token orTok = new Token(TokenType.Or, "||");
 
+    // keywords by a perfect hash of first char, last char and length
+    private static final Token[] keywords = new Token[32];
+
+    static {
+        for (int i = 0; i < KEYWORDS; i++) {
+            String k = reserved[i];
+            int h = hash(k.charAt(0), k.charAt(k.length() - 1), k.length());
+            if (keywords[h] != null)
+                throw new IllegalStateException("keyword hash collision : " + k);
+            keywords[h] = token[i];
+        }
+    }
+
+    private static int hash (char first, char last, int len) {
+        return (first * 3 + last + len * 5) & 31;
+    }
+
     private TokenType type;
-    private String value = "";
+    private String value;
+    // identifiers and literals : a slice of the Lexer's buffer, made
+    // into value when first asked for
+    private char[] source;
+    private int offset, length;
+    // identifiers : the name's number in the Lexer's Symbols table
+    private int symbol = -1;
 
     private Token (TokenType t, String v) {
         type = t;
         value = v;
+        if (t.compareTo(TokenType.Identifier) < 0)
+            fixed[t.ordinal()] = this;
         if (t.compareTo(TokenType.Eof) < 0) {
             int ti = t.ordinal();
             reserved[ti] = v;
@@ -56,28 +83,68 @@ public class Token {
         }
     }
 
+    private Token (TokenType t, char[] s, int off, int len) {
+        type = t;
+        source = s;
+        offset = off;
+        length = len;
+    }
+
     public TokenType type( ) { return type; }
 
-    public String value( ) { return value; }
+    public String value( ) {
+        if (value == null)
+            value = new String(source, offset, length);
+        return value;
+    }
+
+    public int symbol( ) { return symbol; }
 
-    public static Token keyword  ( String name ) {
-        char ch = name.charAt(0);
-        if (ch >= 'A' && ch <= 'Z') return mkIdentTok(name);
-        for (int i = 0; i < KEYWORDS; i++)
-           if (name.equals(reserved[i]))  return token[i];
-        return mkIdentTok(name);
+    // the keyword spelt by s[off .. off+len), or null
+    public static Token keyword  ( char[] s, int off, int len ) {
+        Token k = keywords[hash(s[off], s[off + len - 1], len)];
+        if (k != null && k.spells(s, off, len)) return k;
+        return null;
     } // keyword
 
-    public static Token mkIdentTok (String name) {
-        return new Token(TokenType.Identifier, name);
+    boolean spells ( char[] s, int off, int len ) {
+        String name = value();
+        if (name.length() != len) return false;
+        for (int i = 0; i < len; i++)
+            if (name.charAt(i) != s[off + i]) return false;
+        return true;
+    }
+
+    // the Token of type t spelt by s[start .. end), as scanned by a Lexer
+    public static Token of (TokenType t, char[] s, int start, int end) {
+        if (t == TokenType.Identifier)
+            return mkIdentTok(Symbols.current(), s, start, end - start);
+        if (t == TokenType.IntLiteral)
+            return mkIntLiteral(s, start, end - start);
+        if (t == TokenType.FloatLiteral)
+            return mkFloatLiteral(s, start, end - start);
+        if (t == TokenType.CharLiteral) // '\n' or 'c'
+            return s[start + 1] == '\\' ? mkCharLiteral("\n") : mkCharLiteral(s, start + 1, 1);
+        return fixed[t.ordinal()];
+    } // of
+
+    // numbered in symbols
+    public static Token mkIdentTok (Symbols symbols, char[] s, int off, int len) {
+        Token t = new Token(TokenType.Identifier, s, off, len);
+        t.symbol = symbols.intern(t.value());
+        return t;
+    }
+
+    public static Token mkIntLiteral (char[] s, int off, int len) {
+        return new Token(TokenType.IntLiteral, s, off, len);
     }
 
-    public static Token mkIntLiteral (String name) {
-        return new Token(TokenType.IntLiteral, name);
+    public static Token mkFloatLiteral (char[] s, int off, int len) {
+        return new Token(TokenType.FloatLiteral, s, off, len);
     }
 
-    public static Token mkFloatLiteral (String name) {
-        return new Token(TokenType.FloatLiteral, name);
+    public static Token mkCharLiteral (char[] s, int off, int len) {
+        return new Token(TokenType.CharLiteral, s, off, len);
     }
 
     public static Token mkCharLiteral (String name) {
@@ -85,7 +152,7 @@ public class Token {
     }
 
     public String toString ( ) {
-        if (type.compareTo(TokenType.Identifier) < 0) return value;
-        return type + "\t" + value;
+        if (type.compareTo(TokenType.Identifier) < 0) return value();
+        return type + "\t" + value();
     } // toString
 } // Token
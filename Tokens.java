@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+public class Tokens {
+    // The token stream of a Lexer, with lookahead, as parallel arrays
+    // used as a ring : per token its kind, the TokenType ordinal and
+    // above it an identifier's Symbols number or whether a literal's
+    // value is known, that value, and where its text starts and ends in
+    // the source. No Token is made for it; a value is read from the
+    // source when asked for. Only the current token and
+    // those looked at past it are kept, so the arrays stay as small as
+    // the lookahead. The stream ends in any number of Eofs.
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int TYPE_BITS = 6, TYPE_MASK = (1 << TYPE_BITS) - 1;
+    private static final int EOF = TokenType.Eof.ordinal();
+    private static final int IDENTIFIER = TokenType.Identifier.ordinal();
+    private static final int CHAR_LITERAL = TokenType.CharLiteral.ordinal();
+    // the spelling of each keyword and operator
+    private static final String[] SPELLING = new String[IDENTIFIER];
+
+    static {
+        for (int t = 0; t < IDENTIFIER; t++)
+            SPELLING[t] = Token.of(TYPES[t], null, 0, 0).value();
+    }
+
+    private final Lexer lexer;
+    private final char[] source;
+    private int[] kinds = new int[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] values = new int[16];
+    private int mask = 15;
+    private int current = 0;    // number of the current token
+    private int count = 0;      // tokens scanned
+
+    public Tokens (Lexer lexer) {
+        this.lexer = lexer;
+        source = lexer.source();
+    }
+
+    // moves to the next token, returning its type
+    public TokenType advance () {
+        int i = at(0);
+        if (kinds[i] != EOF) current++;
+        return type(0);
+    }
+
+    // type of the token k after the current one
+    public TokenType type (int k) {
+        int i = at(k);      // before reading kinds, which scanning may replace
+        return TYPES[kinds[i] & TYPE_MASK];
+    }
+
+    // the number of the current token, an identifier, in symbols()
+    public int symbol () {
+        return kinds[at(0)] >>> TYPE_BITS;
+    }
+
+    public Symbols symbols () {
+        return lexer.symbols();
+    }
+
+    // the current token's value as Lexer.bits() gives it, if exact()
+    public int bits () {
+        return values[at(0)];
+    }
+
+    public boolean exact () {
+        return (kinds[at(0)] >>> TYPE_BITS) != 0;
+    }
+
+    public String value () {
+        int i = at(0);
+        int t = kinds[i] & TYPE_MASK;
+        if (t < IDENTIFIER)
+            return SPELLING[t];
+        if (t == IDENTIFIER)
+            return lexer.symbols().name(kinds[i] >>> TYPE_BITS);
+        if (t == CHAR_LITERAL)
+            return token().value();
+        return new String(source, starts[i], ends[i] - starts[i]);
+    }
+
+    // the current token as a Token, for messages
+    public Token token () {
+        int i = at(0);
+        return Token.of(TYPES[kinds[i] & TYPE_MASK], source, starts[i], ends[i]);
+    }
+
+    // index in the ring of the token k after the current one, scanned
+    // if need be; past the end, of the last Eof
+    private int at (int k) {
+        while (current + k >= count) {
+            if (count > 0 && kinds[(count - 1) & mask] == EOF)
+                return (count - 1) & mask;
+            scan();
+        }
+        return (current + k) & mask;
+    }
+
+    private void scan () {
+        if (count - current == kinds.length) grow();
+
+        int i = count & mask;
+        TokenType t = lexer.scan();
+        if (t == TokenType.Identifier)
+            kinds[i] = t.ordinal() | lexer.symbol() << TYPE_BITS;
+        else if (t.compareTo(TokenType.Identifier) > 0 && lexer.exact()) {
+            kinds[i] = t.ordinal() | 1 << TYPE_BITS;
+            values[i] = lexer.bits();
+        }
+        else
+            kinds[i] = t.ordinal();
+        starts[i] = lexer.start();
+        ends[i] = lexer.end();
+        count++;
+    }
+
+    // doubles the ring, keeping each token at its number & mask
+    private void grow () {
+        int n = kinds.length * 2;
+        int[] k = new int[n], s = new int[n], e = new int[n], v = new int[n];
+        for (int j = current; j < count; j++) {
+            k[j & (n - 1)] = kinds[j & mask];
+            s[j & (n - 1)] = starts[j & mask];
+            e[j & (n - 1)] = ends[j & mask];
+            v[j & (n - 1)] = values[j & mask];
+        }
+        kinds = k;
+        starts = s;
+        ends = e;
+        values = v;
+        mask = n - 1;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.*;
+
+public class TypeBench {
+    // Scaling benchmark for typing deep expressions :
+    //     java TypeBench [operands] [runs]
+    // Type checks and transforms, by Program.VT, programs whose one
+    // expression is a chain of + or a nest of unary - over 1000, 2000,
+    // 4000, ... up to operands operands (64000 by default), runs times
+    // over each (10 by default) after a warm-up, and reports the best time
+    // and the time per operand, which stays flat while typing is linear.
+    // Then the same for programs of 1000 up to operands / 4 functions,
+    // each with 64 locals and calling the one before it. Last, the best of
+    // BASELINE_RUNS on LexerBench's program of 3000 functions, time and
+    // bytes allocated, against what Program.V then Program.T took there
+    // before VT replaced them. Runs on a thread with a large stack, since
+    // VT recurses.
+
+    // V then T on the 3000 functions, best of 30 runs
+    static final double BASELINE_MS = 25, BASELINE_MB = 16.6;
+    static final int BASELINE_RUNS = 30;
+
+    public static void main(String[] args) throws Exception {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 64000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Thread t = new Thread(null, () -> {
+            scale("+", max, runs);
+            scale("-", max, runs);
+            scale("f", max / 4, runs);
+            baseline();
+        }, "TypeBench", 1L << 30);
+        t.start();
+        t.join();
+    }
+
+    private static void scale(String op, int max, int runs) {
+        double first = 0;
+        best(generate(op, 1000), runs * 20);
+
+        for (int n = 1000; n <= max; n *= 2) {
+            long best = best(generate(op, n), runs);
+
+            double per = (double) best / n;
+            if (first == 0) first = per;
+            String unit = op.equals("f") ? "function" : "operand";
+            System.out.println("[ " + op + " : " + n + " " + unit + "s, best " + best / 1000000 + " ms, "
+                    + String.format("%.0f", per) + " ns a" + (op.equals("f") ? " " : "n ") + unit + ", "
+                    + String.format("%.2f", per / first) + "x of the first ]");
+        }
+    }
+
+    private static void baseline() {
+        String source = LexerBench.generate(3 + 71 * 3000);
+        long[] bytes = { 0 };
+        long best = best(source, BASELINE_RUNS, bytes);
+
+        double ms = best / 1e6, mb = bytes[0] / 1e6;
+        System.out.println("[ 3000 functions : best " + String.format("%.1f", ms) + " ms"
+                + (bytes[0] >= 0 ? ", " + String.format("%.1f", mb) + " MB" : "")
+                + ", against V then T " + BASELINE_MS + " ms, " + BASELINE_MB + " MB : "
+                + String.format("%.2f", ms / BASELINE_MS) + "x the time"
+                + (bytes[0] >= 0 ? ", " + String.format("%.2f", mb / BASELINE_MB) + "x the bytes" : "") + " ]");
+    }
+
+    private static long best(String source, int runs) {
+        return best(source, runs, new long[1]);
+    }
+
+    // the best time of runs VT of source, parsed afresh each run; the
+    // fewest bytes a run allocated in bytes[0], or -1
+    private static long best(String source, int runs, long[] bytes) {
+        long best = Long.MAX_VALUE;
+        bytes[0] = Long.MAX_VALUE;
+
+        for (int r = 0; r < runs; r++) {
+            Program prog = Semantics.parse(source);
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            long allocated = LexerBench.allocated();
+            long start = System.nanoTime();
+            try {
+                prog.VT(TypeChecker.typing(prog.globals), null);
+            } finally {
+                System.setOut(out);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            bytes[0] = allocated < 0 ? -1 : Math.min(bytes[0], LexerBench.allocated() - allocated);
+        }
+        return best;
+    }
+
+    // x = i + i + ... + i with n operands, or x = -(-( ... -(i) ... )) under
+    // n - 1 minuses, or for f n functions
+    private static String generate(String op, int n) {
+        StringBuilder b = new StringBuilder("int i;\nint x;\n");
+        if (op.equals("f")) {
+            for (int k = 0; k < n; k++) {
+                b.append("int f").append(k).append("(int a) {\n    int l0");
+                for (int l = 1; l < 64; l++) b.append(", l").append(l);
+                b.append(";\n    l0 = a;\n    return ");
+                b.append(k == 0 ? "l0" : "f" + (k - 1) + "(l0)").append(";\n}\n");
+            }
+            b.append("int main() {\n    x = f").append(n - 1).append("(1);\n    return 0;\n}\n");
+        } else {
+            b.append("int main() {\n    x = ");
+            for (int k = 1; k < n; k++)
+                b.append(op.equals("+") ? "i + " : "-(");
+            b.append("i");
+            if (!op.equals("+"))
+                for (int k = 1; k < n; k++) b.append(')');
+            b.append(";\n    return 0;\n}\n");
+        }
+        return b.toString();
+    }
+}
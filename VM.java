@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+public class VM {
+    // Stack machine for Bytecode. Each activation's frame sits on the
+    // operand stack : a call leaves its arguments as the callee's first
+    // slots, and the callee's operands are pushed above its locals.
+    // Calls and returns are handled inside the dispatch loop, so CLite
+    // recursion does not nest Java frames.
+
+    private final Bytecode bc;
+    private final long[] globals;
+
+    private long[] stack = new long[1024];
+
+    // saved caller state, one entry per active call
+    private int[] savedPc = new int[64];
+    private int[] savedFp = new int[64];
+    private int calls = 0;
+
+    private long dispatches = 0;
+
+    private final StringBuilder out = new StringBuilder();
+
+    VM(Bytecode bc) {
+        this.bc = bc;
+        this.globals = new long[bc.globals.size()];
+        Arrays.fill(globals, Bytecode.UNDEF);
+    }
+
+    public State run() {
+        try {
+            execute();
+        } finally {
+            flush();
+        }
+
+        return finalState();
+    }
+
+    // instructions executed by the last run
+    public long dispatches() {
+        return dispatches;
+    }
+
+    private void execute() {
+        final int[] code = bc.code;
+        final long[] constants = bc.constants;
+        long[] stack = this.stack;
+        long n = 0;
+
+        int main = bc.main;
+        int fp = 0;
+        int sp = bc.frame[main];
+        int pc = bc.entry[main];
+
+        if (sp + bc.stack[main] > stack.length) {
+            stack = this.stack = new long[sp + bc.stack[main]];
+        }
+        Arrays.fill(stack, 0, sp, Bytecode.UNDEF);
+
+        try {
+            while (true) {
+                int op = code[pc++];
+                n++;
+
+                switch (op) {
+                    case Bytecode.CONST:
+                        stack[sp++] = constants[code[pc++]];
+                        break;
+                    case Bytecode.LOAD:
+                        stack[sp++] = stack[fp + code[pc++]];
+                        break;
+                    case Bytecode.STORE:
+                        stack[fp + code[pc++]] = stack[--sp];
+                        break;
+                    case Bytecode.GLOAD:
+                        stack[sp++] = globals[code[pc++]];
+                        break;
+                    case Bytecode.GSTORE:
+                        globals[code[pc++]] = stack[--sp];
+                        break;
+                    case Bytecode.POP:
+                        sp--;
+                        break;
+                    case Bytecode.JUMP:
+                        pc = code[pc];
+                        break;
+                    case Bytecode.JUMPF: {
+                        long t = stack[--sp];
+                        if (t == Bytecode.UNDEF)
+                            throw new IllegalArgumentException(bc.strings[code[pc + 1]]);
+                        pc = t != 0 ? pc + 2 : code[pc];
+                        break;
+                    }
+                    case Bytecode.CALL: {
+                        int callee = code[pc++];
+                        int base = sp - bc.params[callee];
+                        int top = base + bc.frame[callee];
+
+                        if (top + bc.stack[callee] > stack.length) {
+                            stack = this.stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + bc.stack[callee]));
+                        }
+                        if (calls == savedPc.length) {
+                            savedPc = Arrays.copyOf(savedPc, calls * 2);
+                            savedFp = Arrays.copyOf(savedFp, calls * 2);
+                        }
+
+                        savedPc[calls] = pc;
+                        savedFp[calls] = fp;
+                        calls++;
+
+                        Arrays.fill(stack, sp, top, Bytecode.UNDEF);
+                        fp = base;
+                        sp = top;
+                        pc = bc.entry[callee];
+                        break;
+                    }
+                    case Bytecode.RET:
+                    case Bytecode.RETDEF: {
+                        long result = op == Bytecode.RET ? stack[sp - 1] : Bytecode.UNDEF;
+
+                        if (calls == 0) { // main returned
+                            return;
+                        }
+
+                        calls--;
+                        sp = fp;
+                        stack[sp++] = result;
+                        pc = savedPc[calls];
+                        fp = savedFp[calls];
+                        break;
+                    }
+                    case Bytecode.PRINT:
+                        print(code[pc++], stack[--sp]);
+                        break;
+                    case Bytecode.FAIL:
+                        throw new IllegalArgumentException(bc.strings[code[pc]]);
+
+                    case Bytecode.IADD: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = (int) a + (int) b; break; }
+                    case Bytecode.ISUB: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = (int) a - (int) b; break; }
+                    case Bytecode.IMUL: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = (int) a * (int) b; break; }
+                    case Bytecode.IDIV: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = (int) a / (int) b; break; }
+                    case Bytecode.IREM: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = (int) a % (int) b; break; }
+                    case Bytecode.INEG: { long a = stack[sp - 1]; defined(op, a); stack[sp - 1] = -(int) a; break; }
+
+                    case Bytecode.FADD: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = bits(f(a) + f(b)); break; }
+                    case Bytecode.FSUB: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = bits(f(a) - f(b)); break; }
+                    case Bytecode.FMUL: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = bits(f(a) * f(b)); break; }
+                    case Bytecode.FDIV: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = bits(f(a) / f(b)); break; }
+                    case Bytecode.FREM: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = bits(f(a) % f(b)); break; }
+                    case Bytecode.FNEG: { long a = stack[sp - 1]; defined(op, a); stack[sp - 1] = bits(-f(a)); break; }
+
+                    // int, char and bool are all held as their int value
+                    case Bytecode.ILT: case Bytecode.CLT: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a < b ? 1 : 0; break; }
+                    case Bytecode.ILE: case Bytecode.CLE: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a <= b ? 1 : 0; break; }
+                    case Bytecode.IEQ: case Bytecode.CEQ: case Bytecode.BEQ: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a == b ? 1 : 0; break; }
+                    case Bytecode.INE: case Bytecode.CNE: case Bytecode.BNE: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a != b ? 1 : 0; break; }
+                    case Bytecode.IGT: case Bytecode.CGT: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a > b ? 1 : 0; break; }
+                    case Bytecode.IGE: case Bytecode.CGE: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a >= b ? 1 : 0; break; }
+
+                    case Bytecode.FLT: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = f(a) < f(b) ? 1 : 0; break; }
+                    case Bytecode.FLE: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = f(a) <= f(b) ? 1 : 0; break; }
+                    case Bytecode.FEQ: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = f(a) == f(b) ? 1 : 0; break; }
+                    case Bytecode.FNE: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = f(a) != f(b) ? 1 : 0; break; }
+                    case Bytecode.FGT: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = f(a) > f(b) ? 1 : 0; break; }
+                    case Bytecode.FGE: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = f(a) >= f(b) ? 1 : 0; break; }
+
+                    case Bytecode.AND: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a & b; break; }
+                    case Bytecode.OR: { long b = stack[--sp], a = stack[sp - 1]; defined(op, a, b); stack[sp - 1] = a | b; break; }
+                    case Bytecode.NOT: { long a = stack[sp - 1]; defined(op, a); stack[sp - 1] = a ^ 1; break; }
+
+                    case Bytecode.I2F: { long a = stack[sp - 1]; defined(op, a); stack[sp - 1] = bits((float) (int) a); break; }
+                    case Bytecode.F2I: { long a = stack[sp - 1]; defined(op, a); stack[sp - 1] = (int) f(a); break; }
+                    case Bytecode.C2I: { long a = stack[sp - 1]; defined(op, a); break; }
+                    case Bytecode.I2C: { long a = stack[sp - 1]; defined(op, a); stack[sp - 1] = (char) (int) a; break; }
+
+                    default:
+                        throw new IllegalArgumentException("illegal instruction : " + op);
+                }
+            }
+        } finally {
+            dispatches = n;
+        }
+    }
+
+    private static float f(long v) {
+        return Float.intBitsToFloat((int) v);
+    }
+
+    private static long bits(float v) {
+        return Float.floatToRawIntBits(v);
+    }
+
+    private static void defined(int op, long a) {
+        if (a == Bytecode.UNDEF)
+            throw new IllegalArgumentException("undef value error : " + Bytecode.TYPED[op].val);
+    }
+
+    private static void defined(int op, long a, long b) {
+        if (a == Bytecode.UNDEF || b == Bytecode.UNDEF)
+            throw new IllegalArgumentException("undef value error : " + Bytecode.TYPED[op].val);
+    }
+
+    // same text as printing the equivalent Value
+    private void print(int type, long v) {
+        if (v == Bytecode.UNDEF)
+            out.append("undef");
+        else if (type == Bytecode.P_INT)
+            out.append((int) v);
+        else if (type == Bytecode.P_FLOAT)
+            out.append(f(v));
+        else if (type == Bytecode.P_CHAR)
+            out.append((char) v);
+        else if (type == Bytecode.P_BOOL)
+            out.append(v != 0);
+        else
+            out.append("undef");
+
+        if (out.length() >= 8192) flush();
+    }
+
+    private void flush() {
+        System.out.print(out);
+        out.setLength(0);
+    }
+
+    private State finalState() {
+        Declarations ds = bc.globals;
+        Value[] frame = new Value[ds.size()];
+
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = decode(ds.get(i).t, globals[i]);
+        }
+
+        return Semantics.finalState(ds, frame);
+    }
+
+    static Value decode(Type t, long v) {
+        if (v == Bytecode.UNDEF) return Value.mkValue(t);
+        if (t == Type.INT) return new IntValue((int) v);
+        if (t == Type.FLOAT) return new FloatValue(f(v));
+        if (t == Type.CHAR) return new CharValue((char) v);
+        return new BoolValue(v != 0);
+    }
+}
@@ -0,0 +1,18 @@
+int main() {
+    int i, n, sum;
+
+    // 10^8 trips : must run on the default thread stack
+    i = 0;
+    n = 100000000;
+    sum = 0;
+
+    while (i < n) {
+        sum = sum + 1;
+        i = i + 1;
+    }
+
+    print sum;
+    print '\n';
+
+    return 0;
+}
\ No newline at end of file
@@ -31,4 +31,6 @@ int main() {
     print 's';print 'u';print 'm';print ':';
     print sum;
     print '\n';
+
+    return 0;
 }
\ No newline at end of file